@@ -0,0 +1,343 @@
+package gov.ornl.datatable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads comma separated rows of floats straight from the bytes of a file. Values
+ * are parsed in place in the read buffer, so reading a row allocates nothing.
+ * Rows are split like StringTokenizer with a "," delimiter, which ignores empty
+ * fields, and values are parsed with the same results as Float.parseFloat.
+ */
+public class CSVReader implements Closeable {
+    public static final int END_OF_FILE = -1;
+    public static final int INVALID_ROW = -2;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // largest significand that converts to a double exactly
+    private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;
+    private static final int MAX_SIGNIFICANT_DIGITS = 18;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream input;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    // offset in the input of the first byte in the buffer
+    private long bufferOffset = 0;
+    private boolean endOfInput = false;
+
+    public CSVReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    // read the lines of a file between the byte offsets start and end, which should be line starts
+    public CSVReader(File file, long start, long end) throws IOException {
+        FileInputStream fileInput = new FileInputStream(file);
+        try {
+            fileInput.getChannel().position(start);
+        } catch (IOException ex) {
+            fileInput.close();
+            throw ex;
+        }
+        this.input = new RangeInputStream(fileInput, end - start);
+    }
+
+    public CSVReader(InputStream input) {
+        this.input = input;
+    }
+
+    // read the next line as text in the default charset, or null at the end of the file
+    public String readLine() throws IOException {
+        if (!hasMoreInput()) {
+            return null;
+        }
+        int lineEnd = findLineEnd();
+        String line = new String(buffer, position, lineEnd - position, Charset.defaultCharset());
+        skipLine(lineEnd);
+        return line;
+    }
+
+    // Parse the next line into values and return the number of values in it, which may be more
+    // than values.length. Returns INVALID_ROW if a value is not a number, or END_OF_FILE.
+    public int readRow(float[] values) throws IOException {
+        if (!hasMoreInput()) {
+            return END_OF_FILE;
+        }
+        int lineEnd = findLineEnd();
+
+        int valueCount = 0;
+        int tokenStart = position;
+        for (int i = position; i <= lineEnd; i++) {
+            if (i == lineEnd || buffer[i] == ',') {
+                if (i > tokenStart) {
+                    float value;
+                    try {
+                        value = parseFloat(buffer, tokenStart, i);
+                    } catch (NumberFormatException ex) {
+                        skipLine(lineEnd);
+                        return INVALID_ROW;
+                    }
+                    if (valueCount < values.length) {
+                        values[valueCount] = value;
+                    }
+                    valueCount++;
+                }
+                tokenStart = i + 1;
+            }
+        }
+
+        skipLine(lineEnd);
+        return valueCount;
+    }
+
+    // skip count lines without parsing them; returns false if the file ended first
+    public boolean skipRows(long count) throws IOException {
+        for (long i = 0; i < count; i++) {
+            if (!hasMoreInput()) {
+                return false;
+            }
+            skipLine(findLineEnd());
+        }
+        return true;
+    }
+
+    // number of bytes of the input consumed by the lines read so far
+    public long getPosition() {
+        return bufferOffset + position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    // Return the offset of the first line starting at or after offset. A line starts after
+    // "\n", "\r" or "\r\n"; returns the file length if no line starts there.
+    public static long findLineStart(RandomAccessFile file, long offset) throws IOException {
+        if (offset <= 0) {
+            return 0;
+        }
+        byte[] bytes = new byte[8192];
+        long blockOffset = offset - 1;
+        boolean carriageReturn = false;
+        while (true) {
+            file.seek(blockOffset);
+            int count = file.read(bytes);
+            if (count <= 0) {
+                return file.length();
+            }
+            for (int i = 0; i < count; i++) {
+                if (carriageReturn) {
+                    return bytes[i] == '\n' ? blockOffset + i + 1 : blockOffset + i;
+                }
+                if (bytes[i] == '\n') {
+                    return blockOffset + i + 1;
+                }
+                carriageReturn = bytes[i] == '\r';
+            }
+            blockOffset += count;
+        }
+    }
+
+    // Parse a float from bytes with the same result as Float.parseFloat. Plain decimals with up
+    // to 18 significant digits are computed exactly as a double and rounded once to a float; a
+    // double that falls on a float rounding midpoint, and every other form, fall back to
+    // Float.parseFloat.
+    static float parseFloat(byte[] bytes, int start, int end) {
+        int i = start;
+        int last = end;
+        // Float.parseFloat ignores leading and trailing characters up to ' '
+        while (i < last && (bytes[i] & 0xff) <= ' ') {
+            i++;
+        }
+        while (last > i && (bytes[last - 1] & 0xff) <= ' ') {
+            last--;
+        }
+
+        boolean negative = false;
+        if (i < last && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long significand = 0;
+        int significantDigits = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        for (; i < last; i++) {
+            int b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                if (significantDigits == MAX_SIGNIFICANT_DIGITS) {
+                    return parseFloatSlow(bytes, start, end);
+                }
+                significand = significand * 10 + (b - '0');
+                if (significand != 0) {
+                    significantDigits++;
+                }
+                if (fraction) {
+                    exponent--;
+                }
+                digits++;
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return parseFloatSlow(bytes, start, end);
+        }
+
+        if (i < last && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < last && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponentDigits = 0;
+            int exponentValue = 0;
+            for (; i < last && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                if (exponentValue > 1000) {
+                    return parseFloatSlow(bytes, start, end);
+                }
+                exponentValue = exponentValue * 10 + (bytes[i] - '0');
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return parseFloatSlow(bytes, start, end);
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+        if (i != last) {
+            return parseFloatSlow(bytes, start, end);
+        }
+
+        if (significand == 0) {
+            return negative ? -0.f : 0.f;
+        }
+        if (significand > MAX_EXACT_SIGNIFICAND || exponent < -22 || exponent > 22) {
+            return parseFloatSlow(bytes, start, end);
+        }
+
+        double value = exponent < 0 ? significand / POWERS_OF_TEN[-exponent] : significand * POWERS_OF_TEN[exponent];
+        // rounding the correctly rounded double again is only wrong when it lands exactly
+        // between two floats, and subnormal or overflowing floats round differently
+        if (value < Float.MIN_NORMAL || value > Float.MAX_VALUE ||
+                (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L) {
+            return parseFloatSlow(bytes, start, end);
+        }
+        return (float)(negative ? -value : value);
+    }
+
+    private static float parseFloatSlow(byte[] bytes, int start, int end) {
+        return Float.parseFloat(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+    }
+
+    private boolean hasMoreInput() throws IOException {
+        while (position == limit && !endOfInput) {
+            fill();
+        }
+        return position < limit;
+    }
+
+    // index of the '\n' or '\r' ending the current line, or limit if the file ends without one
+    private int findLineEnd() throws IOException {
+        int scan = position;
+        while (true) {
+            for (; scan < limit; scan++) {
+                byte b = buffer[scan];
+                if (b == '\n' || b == '\r') {
+                    return scan;
+                }
+            }
+            if (endOfInput) {
+                return limit;
+            }
+            scan -= fill();
+        }
+    }
+
+    // move past the line ending at lineEnd, treating "\r\n" as one terminator like readLine
+    private void skipLine(int lineEnd) throws IOException {
+        position = lineEnd;
+        if (position < limit) {
+            if (buffer[position++] == '\r') {
+                if (position == limit && !endOfInput) {
+                    fill();
+                }
+                if (position < limit && buffer[position] == '\n') {
+                    position++;
+                }
+            }
+        }
+    }
+
+    // move the unread bytes to the front of the buffer and read more; returns how far they moved
+    private int fill() throws IOException {
+        int shift = position;
+        bufferOffset += shift;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int count = input.read(buffer, limit, buffer.length - limit);
+        if (count < 0) {
+            endOfInput = true;
+        } else {
+            limit += count;
+        }
+        return shift;
+    }
+
+    // reads at most length bytes of an input stream
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(InputStream input, long length) {
+            super(input);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = super.read(b, off, (int)Math.min(len, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+    }
+}
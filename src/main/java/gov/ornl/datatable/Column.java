@@ -10,6 +10,8 @@ public class Column implements Serializable {
     private SummaryStats focusSummaryStats = null;
     private boolean enabled = true;
     private boolean isDiscrete = false;
+    // index of the column's values in the data model's column store
+    private int storeIndex = -1;
 
     public Column(String name) {
         this.name = name;
@@ -55,6 +57,14 @@ public class Column implements Serializable {
         this.enabled = enabled;
     }
 
+    int getStoreIndex() {
+        return storeIndex;
+    }
+
+    void setStoreIndex(int storeIndex) {
+        this.storeIndex = storeIndex;
+    }
+
     public String getName() {
         return name;
     }
@@ -0,0 +1,45 @@
+package gov.ornl.datatable;
+
+/**
+ * A growable sequence of float values holding one column of a ColumnStore.
+ * Subclasses decide where the values live, on the Java heap or in a
+ * memory-mapped file. A buffer is also the zero-copy view of all rows of its
+ * column.
+ */
+public abstract class ColumnBuffer implements FloatColumnView {
+    protected int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public abstract float get(int index);
+
+    public int get(int index, float[] dst, int offset, int length) {
+        int count = Math.min(length, size - index);
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = get(index + i);
+        }
+        return count;
+    }
+
+    public abstract void set(int index, float value);
+
+    public void append(float value) {
+        ensureCapacity(size + 1);
+        set(size++, value);
+    }
+
+    // drop all values at or beyond newSize
+    public void truncate(int newSize) {
+        if (newSize < size) {
+            size = newSize;
+        }
+    }
+
+    // write any pending changes to the backing storage
+    public void flush() {
+    }
+
+    protected abstract void ensureCapacity(int minCapacity);
+}
@@ -0,0 +1,244 @@
+package gov.ornl.datatable;
+
+/**
+ * Running count, mean, central moments and range of a column of values. The
+ * moments of separately read parts of a column can be merged, so statistics of
+ * data loaded in parallel chunks need no further pass over the values. As in
+ * DataModel's statistics, NaN and infinite values make the moments NaN, and
+ * NaN values are ignored by the minimum and maximum.
+ */
+public class ColumnMoments {
+    private long n = 0;
+    private double mean = 0.;
+    // sums of the second to fourth powers of the deviations from the mean
+    private double m2 = 0.;
+    private double m3 = 0.;
+    private double m4 = 0.;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    // set when a NaN or infinite value was added; such values are left out of the moments
+    private boolean nonFinite = false;
+    private long nanCount = 0;
+
+    // Moments of n values, nanCount of them NaN, from their mean and the sums of the second to
+    // fourth powers of their deviations from it, as calculated by a two-pass algorithm.
+    static ColumnMoments fromSums(long n, long nanCount, double mean, double m2, double m3, double m4,
+                                  double min, double max) {
+        ColumnMoments moments = new ColumnMoments();
+        moments.n = n;
+        moments.nanCount = nanCount;
+        moments.min = min;
+        moments.max = max;
+        moments.nonFinite = nanCount > 0 || Double.isInfinite(min) || Double.isInfinite(max);
+        if (!moments.nonFinite) {
+            moments.mean = mean;
+            moments.m2 = m2;
+            moments.m3 = m3;
+            moments.m4 = m4;
+        }
+        return moments;
+    }
+
+    public void add(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            n++;
+            nonFinite = true;
+            if (Float.isNaN(value)) {
+                nanCount++;
+            } else {
+                if (Double.isNaN(min) || value < min) {
+                    min = value;
+                }
+                if (Double.isNaN(max) || value > max) {
+                    max = value;
+                }
+            }
+            return;
+        }
+
+        long n1 = n;
+        n++;
+        double delta = value - mean;
+        double deltaN = delta / n;
+        double deltaN2 = deltaN * deltaN;
+        double term1 = delta * deltaN * n1;
+        mean += deltaN;
+        m4 += term1 * deltaN2 * (n * n - 3. * n + 3.) + 6. * deltaN2 * m2 - 4. * deltaN * m3;
+        m3 += term1 * deltaN * (n - 2.) - 3. * deltaN * m2;
+        m2 += term1;
+
+        if (!Float.isNaN(value)) {
+            if (Double.isNaN(min) || value < min) {
+                min = value;
+            }
+            if (Double.isNaN(max) || value > max) {
+                max = value;
+            }
+        }
+    }
+
+    // combine the moments of another part of the column into these
+    public void merge(ColumnMoments other) {
+        if (other.n == 0) {
+            return;
+        }
+        nonFinite |= other.nonFinite;
+        nanCount += other.nanCount;
+        if (n == 0) {
+            n = other.n;
+            mean = other.mean;
+            m2 = other.m2;
+            m3 = other.m3;
+            m4 = other.m4;
+            min = other.min;
+            max = other.max;
+            return;
+        }
+
+        double na = n;
+        double nb = other.n;
+        double nx = na + nb;
+        double delta = other.mean - mean;
+        double delta2 = delta * delta;
+        double delta3 = delta2 * delta;
+        double delta4 = delta2 * delta2;
+
+        double newM2 = m2 + other.m2 + delta2 * na * nb / nx;
+        double newM3 = m3 + other.m3 + delta3 * na * nb * (na - nb) / (nx * nx) +
+                3. * delta * (na * other.m2 - nb * m2) / nx;
+        double newM4 = m4 + other.m4 + delta4 * na * nb * (na * na - na * nb + nb * nb) / (nx * nx * nx) +
+                6. * delta2 * (na * na * other.m2 + nb * nb * m2) / (nx * nx) +
+                4. * delta * (na * other.m3 - nb * m3) / nx;
+
+        n += other.n;
+        mean += delta * nb / nx;
+        m2 = newM2;
+        m3 = newM3;
+        m4 = newM4;
+        if (!Double.isNaN(other.min) && (Double.isNaN(min) || other.min < min)) {
+            min = other.min;
+        }
+        if (!Double.isNaN(other.max) && (Double.isNaN(max) || other.max > max)) {
+            max = other.max;
+        }
+    }
+
+    // Take the moments of values that were merged into these back out again, as when tuples leave
+    // a query. The removed values must all be finite. The minimum and maximum cannot be recovered
+    // this way and are left unchanged.
+    public void remove(ColumnMoments other) {
+        if (other.n == 0) {
+            return;
+        }
+        if (other.nonFinite) {
+            throw new IllegalArgumentException("Only finite values can be removed from moments");
+        }
+        if (other.n >= n) {
+            n = 0;
+            mean = 0.;
+            m2 = 0.;
+            m3 = 0.;
+            m4 = 0.;
+            return;
+        }
+
+        double nx = n;
+        double nb = other.n;
+        double na = nx - nb;
+        double meanA = (nx * mean - nb * other.mean) / na;
+        double delta = other.mean - meanA;
+        double delta2 = delta * delta;
+        double delta3 = delta2 * delta;
+        double delta4 = delta2 * delta2;
+
+        // invert the terms of merge, using the moments of the remaining part as they are found
+        double m2a = m2 - other.m2 - delta2 * na * nb / nx;
+        double m3a = m3 - other.m3 - delta3 * na * nb * (na - nb) / (nx * nx) -
+                3. * delta * (na * other.m2 - nb * m2a) / nx;
+        double m4a = m4 - other.m4 - delta4 * na * nb * (na * na - na * nb + nb * nb) / (nx * nx * nx) -
+                6. * delta2 * (na * na * other.m2 + nb * nb * m2a) / (nx * nx) -
+                4. * delta * (na * other.m3 - nb * m3a) / nx;
+
+        n -= other.n;
+        mean = meanA;
+        m2 = Math.max(m2a, 0.);
+        m3 = m3a;
+        m4 = Math.max(m4a, 0.);
+    }
+
+    // set the range after values were removed, from the values that remain; a single remaining
+    // value also resets the moments, which would otherwise keep rounding errors of the removal
+    void setRange(double min, double max) {
+        this.min = min;
+        this.max = max;
+        if (min == max && n > 0 && !nonFinite) {
+            mean = min;
+            m2 = 0.;
+            m3 = 0.;
+            m4 = 0.;
+        }
+    }
+
+    // the mean and sums of the powers of the deviations from it, to be restored by fromSums
+    double getRawMean() {
+        return mean;
+    }
+
+    double getM2() {
+        return m2;
+    }
+
+    double getM3() {
+        return m3;
+    }
+
+    double getM4() {
+        return m4;
+    }
+
+    public long getCount() {
+        return n;
+    }
+
+    public long getNaNCount() {
+        return nanCount;
+    }
+
+    public double getMean() {
+        return n == 0 || nonFinite ? Double.NaN : mean;
+    }
+
+    // bias corrected sample variance, as in commons-math
+    public double getVariance() {
+        if (n == 0 || nonFinite) {
+            return Double.NaN;
+        }
+        return n == 1 ? 0. : m2 / (n - 1.);
+    }
+
+    public double getSkewness() {
+        if (n < 3 || nonFinite) {
+            return Double.NaN;
+        }
+        double variance = getVariance();
+        return ((double)n / ((n - 1.) * (n - 2.))) * (m3 / (variance * Math.sqrt(variance)));
+    }
+
+    public double getKurtosis() {
+        if (n < 4 || nonFinite) {
+            return Double.NaN;
+        }
+        double variance = getVariance();
+        double coefficientOne = ((double)n * (n + 1.)) / ((n - 1.) * (n - 2.) * (n - 3.));
+        double termTwo = (3. * (n - 1.) * (n - 1.)) / ((n - 2.) * (n - 3.));
+        return coefficientOne * (m4 / (variance * variance)) - termTwo;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,411 @@
+package gov.ornl.datatable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column-oriented storage for the values of a DataModel. Each column is kept
+ * in its own ColumnBuffer of primitive floats, either on the heap or in a
+ * memory-mapped file, so a value costs four bytes instead of a boxed Float in
+ * a per-row list. Rows are addressed by index and exposed to callers through
+ * lightweight Tuple views.
+ *
+ * Stored columns keep a stable index for the lifetime of the store. The
+ * columns seen through getValue, getColumnBuffer and Tuple views are selected
+ * and ordered by a column order map, so hiding or reordering columns only
+ * rewrites that map and never touches the values.
+ *
+ * Removed rows are only marked in a deletion vector and skipped through the
+ * live row index, so removing rows does not move any values. The values of
+ * deleted rows are dropped later by compaction, which copies the live rows
+ * into new buffers off the calling thread and then swaps them in.
+ */
+public class ColumnStore {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private ArrayList<ColumnBuffer> columnBuffers = new ArrayList<ColumnBuffer>();
+    // stored column index for each visible column
+    private int[] columnOrder;
+    private int[] hiddenColumns = new int[0];
+    private BitSet queryFlags = new BitSet();
+    // order factor of each row that had one set, or null while no row has one; rows past the
+    // end of the array have an order factor of 0
+    private int[] orderFactors;
+    private int rowCount = 0;
+    private BitSet deletedRows = new BitSet();
+    // stored row index of each live row, or null when no rows are deleted
+    private int[] liveRows;
+    private int liveRowCount = 0;
+    // incremented on every change to the rows so compaction can detect concurrent changes
+    private int modificationCount = 0;
+    // incremented when stored values are changed or moved, but not when rows are appended or
+    // deleted, so indices of the values only need to add appended rows
+    private int valueModificationCount = 0;
+
+    public ColumnStore(int columnCount) {
+        this(columnCount, DEFAULT_CAPACITY);
+    }
+
+    public ColumnStore(int columnCount, int initialCapacity) {
+        for (int i = 0; i < columnCount; i++) {
+            columnBuffers.add(new HeapColumnBuffer(initialCapacity));
+        }
+        columnOrder = identityOrder(columnCount);
+    }
+
+    // build a store over existing column buffers, which must all hold the same number of values
+    public ColumnStore(ArrayList<ColumnBuffer> columnBuffers) {
+        if (!columnBuffers.isEmpty()) {
+            rowCount = columnBuffers.get(0).size();
+        }
+        for (ColumnBuffer columnBuffer : columnBuffers) {
+            if (columnBuffer.size() != rowCount) {
+                throw new IllegalArgumentException("Column buffers have different sizes");
+            }
+        }
+        this.columnBuffers.addAll(columnBuffers);
+        columnOrder = identityOrder(columnBuffers.size());
+        queryFlags.set(0, rowCount);
+        liveRowCount = rowCount;
+    }
+
+    // number of visible columns
+    public int getColumnCount() {
+        return columnOrder.length;
+    }
+
+    // number of stored columns, including hidden ones
+    public int getStoredColumnCount() {
+        return columnBuffers.size();
+    }
+
+    // number of stored rows, including deleted rows that have not been compacted yet
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getLiveRowCount() {
+        return liveRowCount;
+    }
+
+    // stored row index of the live row at the given index
+    public int getLiveRow(int index) {
+        if (index < 0 || index >= liveRowCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + liveRowCount);
+        }
+        return liveRows == null ? index : liveRows[index];
+    }
+
+    // ascending stored row indices of the live rows, or null when no rows are deleted;
+    // the returned array is not copied and only its first getLiveRowCount() entries are valid
+    int[] getLiveRows() {
+        return liveRows;
+    }
+
+    public boolean hasDeletedRows() {
+        return liveRows != null;
+    }
+
+    public boolean isDeleted(int row) {
+        return deletedRows.get(row);
+    }
+
+    int getModificationCount() {
+        return modificationCount;
+    }
+
+    int getValueModificationCount() {
+        return valueModificationCount;
+    }
+
+    public ColumnBuffer getColumnBuffer(int column) {
+        return columnBuffers.get(columnOrder[column]);
+    }
+
+    public ColumnBuffer getStoredColumnBuffer(int storedColumn) {
+        return columnBuffers.get(storedColumn);
+    }
+
+    public int getStoredColumnIndex(int column) {
+        return columnOrder[column];
+    }
+
+    // make the given stored columns visible, in the given order; all other columns are hidden
+    public void setColumnOrder(int[] storedColumnIndices) {
+        for (int storedColumn : storedColumnIndices) {
+            if (storedColumn < 0 || storedColumn >= columnBuffers.size()) {
+                throw new IndexOutOfBoundsException("Stored column: " + storedColumn + ", Size: " + columnBuffers.size());
+            }
+        }
+        columnOrder = storedColumnIndices.clone();
+
+        boolean[] visible = new boolean[columnBuffers.size()];
+        for (int storedColumn : columnOrder) {
+            visible[storedColumn] = true;
+        }
+        hiddenColumns = new int[columnBuffers.size() - columnOrder.length];
+        for (int storedColumn = 0, i = 0; storedColumn < visible.length; storedColumn++) {
+            if (!visible[storedColumn]) {
+                hiddenColumns[i++] = storedColumn;
+            }
+        }
+    }
+
+    public float getValue(int row, int column) {
+        if (row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + rowCount);
+        }
+        return columnBuffers.get(columnOrder[column]).get(row);
+    }
+
+    public void setValue(int row, int column, float value) {
+        if (row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + rowCount);
+        }
+        columnBuffers.get(columnOrder[column]).set(row, value);
+        modificationCount++;
+        valueModificationCount++;
+    }
+
+    // append a row holding the values of the visible columns; hidden columns receive NaN
+    public void addRow(float[] values) {
+        if (values.length != columnOrder.length) {
+            throw new IllegalArgumentException("Row has " + values.length + " values but store has " +
+                    columnOrder.length + " columns");
+        }
+        appendHiddenColumnNaNs();
+        for (int icolumn = 0; icolumn < values.length; icolumn++) {
+            columnBuffers.get(columnOrder[icolumn]).append(values[icolumn]);
+        }
+        appendLiveRow();
+    }
+
+    public void addRow(Tuple tuple) {
+        if (tuple.getElementCount() != columnOrder.length) {
+            throw new IllegalArgumentException("Tuple has " + tuple.getElementCount() + " values but store has " +
+                    columnOrder.length + " columns");
+        }
+        appendHiddenColumnNaNs();
+        for (int icolumn = 0; icolumn < columnOrder.length; icolumn++) {
+            columnBuffers.get(columnOrder[icolumn]).append(tuple.getElement(icolumn));
+        }
+        appendLiveRow();
+    }
+
+    public boolean getQueryFlag(int row) {
+        return queryFlags.get(row);
+    }
+
+    public void setQueryFlag(int row, boolean enabled) {
+        queryFlags.set(row, enabled);
+    }
+
+    public int getOrderFactor(int row) {
+        return orderFactors != null && row < orderFactors.length ? orderFactors[row] : 0;
+    }
+
+    public void setOrderFactor(int row, int orderFactor) {
+        if (row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + rowCount);
+        }
+        if (orderFactors == null || row >= orderFactors.length) {
+            if (orderFactor == 0) {
+                return;
+            }
+            orderFactors = orderFactors == null ? new int[rowCount] : Arrays.copyOf(orderFactors, rowCount);
+        }
+        orderFactors[row] = orderFactor;
+    }
+
+    public void setAllQueryFlags(boolean enabled) {
+        queryFlags.set(0, rowCount, enabled);
+    }
+
+    // set the query flags of the first rowCount of the given rows and clear those of the other
+    // live rows, leaving the flags of deleted rows as they are
+    void setQueryFlags(int[] rows, int rowCount) {
+        if (liveRows == null) {
+            queryFlags.clear();
+        } else {
+            BitSet deletedQueryFlags = (BitSet)queryFlags.clone();
+            deletedQueryFlags.and(deletedRows);
+            queryFlags = deletedQueryFlags;
+        }
+        for (int i = 0; i < rowCount; i++) {
+            queryFlags.set(rows[i]);
+        }
+    }
+
+    // mark the stored rows whose bits are set as deleted; their values stay in place until compaction
+    public void deleteRows(BitSet rows) {
+        if (rows.length() > rowCount) {
+            throw new IndexOutOfBoundsException("Row: " + (rows.length() - 1) + ", Size: " + rowCount);
+        }
+        deletedRows.or(rows);
+        updateLiveRows();
+    }
+
+    // make previously deleted rows live again, as long as they have not been compacted away
+    public void undeleteRows(BitSet rows) {
+        deletedRows.andNot(rows);
+        updateLiveRows();
+    }
+
+    public BitSet getDeletedRows() {
+        return (BitSet)deletedRows.clone();
+    }
+
+    // Snapshot the live rows for compaction. Returns null if there is nothing to compact or a
+    // column is file-backed, as those keep their deleted rows.
+    public Compaction startCompaction() {
+        if (liveRows == null) {
+            return null;
+        }
+        for (ColumnBuffer columnBuffer : columnBuffers) {
+            if (!(columnBuffer instanceof HeapColumnBuffer)) {
+                return null;
+            }
+        }
+        return new Compaction(new ArrayList<ColumnBuffer>(columnBuffers), liveRows, liveRowCount, modificationCount);
+    }
+
+    // swap in the buffers copied by the compaction; returns false and leaves the store unchanged
+    // if the rows were modified after the compaction was started
+    public boolean applyCompaction(Compaction compaction) {
+        if (compaction == null || compaction.compactedBuffers == null ||
+                compaction.modificationCount != modificationCount) {
+            return false;
+        }
+
+        BitSet compactedQueryFlags = new BitSet(compaction.rowCount);
+        for (int i = 0; i < compaction.rowCount; i++) {
+            if (queryFlags.get(compaction.liveRows[i])) {
+                compactedQueryFlags.set(i);
+            }
+        }
+
+        if (orderFactors != null) {
+            int[] compactedOrderFactors = new int[compaction.rowCount];
+            for (int i = 0; i < compaction.rowCount; i++) {
+                compactedOrderFactors[i] = getOrderFactor(compaction.liveRows[i]);
+            }
+            orderFactors = compactedOrderFactors;
+        }
+
+        columnBuffers = compaction.compactedBuffers;
+        queryFlags = compactedQueryFlags;
+        deletedRows = new BitSet();
+        liveRows = null;
+        rowCount = compaction.rowCount;
+        liveRowCount = compaction.rowCount;
+        modificationCount++;
+        valueModificationCount++;
+        return true;
+    }
+
+    // stored row index that a live row will have after the given compaction is applied
+    static int getCompactedRow(Compaction compaction, int row) {
+        return Arrays.binarySearch(compaction.liveRows, 0, compaction.rowCount, row);
+    }
+
+    // write pending changes of file-backed columns to disk
+    public void flush() {
+        for (ColumnBuffer columnBuffer : columnBuffers) {
+            columnBuffer.flush();
+        }
+    }
+
+    public void clear() {
+        for (ColumnBuffer columnBuffer : columnBuffers) {
+            columnBuffer.truncate(0);
+        }
+        rowCount = 0;
+        queryFlags.clear();
+        orderFactors = null;
+        deletedRows.clear();
+        liveRows = null;
+        liveRowCount = 0;
+        modificationCount++;
+        valueModificationCount++;
+    }
+
+    private void appendLiveRow() {
+        queryFlags.set(rowCount);
+        if (liveRows != null) {
+            if (liveRowCount == liveRows.length) {
+                liveRows = Arrays.copyOf(liveRows, liveRows.length + (liveRows.length >> 1) + 1);
+            }
+            liveRows[liveRowCount] = rowCount;
+        }
+        rowCount++;
+        liveRowCount++;
+        modificationCount++;
+    }
+
+    private void updateLiveRows() {
+        modificationCount++;
+        if (deletedRows.isEmpty()) {
+            liveRows = null;
+            liveRowCount = rowCount;
+            return;
+        }
+
+        liveRowCount = rowCount - deletedRows.cardinality();
+        liveRows = new int[liveRowCount];
+        for (int row = deletedRows.nextClearBit(0), i = 0; row < rowCount; row = deletedRows.nextClearBit(row + 1)) {
+            liveRows[i++] = row;
+        }
+    }
+
+    private void appendHiddenColumnNaNs() {
+        for (int storedColumn : hiddenColumns) {
+            columnBuffers.get(storedColumn).append(Float.NaN);
+        }
+    }
+
+    /**
+     * A snapshot of the live rows of a store. copyRows does the expensive copying and only
+     * reads the store, so it may run on a background thread; the copy is then swapped in with
+     * applyCompaction on the thread that owns the store.
+     */
+    public static class Compaction {
+        private final ArrayList<ColumnBuffer> columnBuffers;
+        private final int[] liveRows;
+        private final int rowCount;
+        private final int modificationCount;
+        private volatile ArrayList<ColumnBuffer> compactedBuffers;
+
+        private Compaction(ArrayList<ColumnBuffer> columnBuffers, int[] liveRows, int rowCount,
+                           int modificationCount) {
+            this.columnBuffers = columnBuffers;
+            this.liveRows = liveRows;
+            this.rowCount = rowCount;
+            this.modificationCount = modificationCount;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        public void copyRows() {
+            ArrayList<ColumnBuffer> buffers = new ArrayList<ColumnBuffer>(columnBuffers.size());
+            for (ColumnBuffer columnBuffer : columnBuffers) {
+                HeapColumnBuffer compactedBuffer = new HeapColumnBuffer(Math.max(rowCount, 1));
+                for (int i = 0; i < rowCount; i++) {
+                    compactedBuffer.append(columnBuffer.get(liveRows[i]));
+                }
+                buffers.add(compactedBuffer);
+            }
+            compactedBuffers = buffers;
+        }
+    }
+
+    private static int[] identityOrder(int columnCount) {
+        int[] order = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+}
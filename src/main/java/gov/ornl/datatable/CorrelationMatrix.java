@@ -0,0 +1,389 @@
+package gov.ornl.datatable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pearson correlation coefficients between every pair of columns of a data
+ * model, kept as the packed upper triangle of the symmetric matrix in a single
+ * float array. Columns are addressed by their stable stored column index, so
+ * the matrix does not change when columns are reordered, disabled or enabled;
+ * the per-column coefficient lists of SummaryStats are views of one row of it
+ * in the current column order of the ColumnStore. Coefficients of columns that
+ * were not calculated are NaN.
+ *
+ * A calculated matrix also keeps the co-moments it was calculated from, so
+ * rows appended later can be merged in with addRows in time proportional to
+ * the number of new rows.
+ *
+ * The coefficients are calculated like a matrix product of the centered
+ * columns with themselves. Rows are processed in blocks: each block of every
+ * column is centered once into a panel of doubles, and the panel's upper
+ * triangle of dot products is accumulated tile by tile, so each value is read
+ * and centered once instead of once per pair. Tiles of the same block may be
+ * calculated in parallel; each coefficient is always accumulated in the same
+ * order, so the results do not depend on the parallelism.
+ */
+public class CorrelationMatrix {
+    private static final int ROW_BLOCK_SIZE = 1024;
+    private static final int TILE_SIZE = 32;
+
+    private final int size;
+    private final float[] coefficients;
+    // sums of the products of the deviations from the means, packed like the coefficients,
+    // over count rows; null when the coefficients were not calculated from all rows
+    private double[] coMoments;
+    private long count;
+
+    // a matrix for columns with stored indices below size, with every coefficient NaN
+    public CorrelationMatrix(int size) {
+        this(size, new float[size * (size + 1) / 2]);
+        Arrays.fill(coefficients, Float.NaN);
+    }
+
+    CorrelationMatrix(int size, float[] coefficients) {
+        if (coefficients.length != size * (size + 1) / 2) {
+            throw new IllegalArgumentException("Packed matrix of " + size + " columns has " +
+                    coefficients.length + " coefficients");
+        }
+        this.size = size;
+        this.coefficients = coefficients;
+    }
+
+    // copy of other with room for columns with stored indices below size
+    public CorrelationMatrix(CorrelationMatrix other, int size) {
+        this(size);
+        int copySize = Math.min(size, other.size);
+        for (int ix = 0; ix < copySize; ix++) {
+            for (int iy = ix; iy < copySize; iy++) {
+                coefficients[index(ix, iy, size)] = other.coefficients[index(ix, iy, other.size)];
+            }
+        }
+    }
+
+    // Calculate the correlations of views, which must all hold the same number of values, given
+    // their means, into a matrix of the given size where view i is the column with stored index
+    // columnIds[i]. A coefficient is NaN if a column has fewer than two values, no variance or a
+    // value that is not finite. The tiles are calculated on pool if it is not null.
+    public static CorrelationMatrix calculate(FloatColumnView[] views, double[] means, int[] columnIds, int size,
+                                              ForkJoinPool pool) {
+        int viewCount = views.length;
+        int rowCount = viewCount == 0 ? 0 : views[0].size();
+        for (FloatColumnView view : views) {
+            if (view.size() != rowCount) {
+                throw new IllegalArgumentException("Column views have different sizes");
+            }
+        }
+
+        // co-moments of the centered columns, the variances on the diagonal
+        double[] sums = new double[viewCount * (viewCount + 1) / 2];
+        double[][] panel = new double[viewCount][ROW_BLOCK_SIZE];
+        float[] values = new float[ROW_BLOCK_SIZE];
+        int tileCount = (viewCount + TILE_SIZE - 1) / TILE_SIZE;
+        for (int rowStart = 0; rowStart < rowCount; rowStart += ROW_BLOCK_SIZE) {
+            int blockSize = Math.min(ROW_BLOCK_SIZE, rowCount - rowStart);
+            for (int icolumn = 0; icolumn < viewCount; icolumn++) {
+                views[icolumn].get(rowStart, values, 0, blockSize);
+                double mean = means[icolumn];
+                double[] centered = panel[icolumn];
+                for (int i = 0; i < blockSize; i++) {
+                    centered[i] = values[i] - mean;
+                }
+            }
+
+            if (pool == null || tileCount < 2) {
+                accumulateTiles(panel, blockSize, sums, viewCount, 0, tileCount * (tileCount + 1) / 2);
+            } else {
+                pool.invoke(new TileTask(panel, blockSize, sums, viewCount, 0, tileCount * (tileCount + 1) / 2));
+            }
+        }
+
+        CorrelationMatrix matrix = new CorrelationMatrix(size);
+        matrix.coMoments = new double[matrix.coefficients.length];
+        Arrays.fill(matrix.coMoments, Double.NaN);
+        matrix.count = rowCount;
+        for (int ix = 0; ix < viewCount; ix++) {
+            for (int iy = ix; iy < viewCount; iy++) {
+                matrix.coMoments[matrix.index(columnIds[ix], columnIds[iy])] = sums[index(ix, iy, viewCount)];
+            }
+        }
+        matrix.updateCoefficients(columnIds);
+        return matrix;
+    }
+
+    // Merge a batch of count rows appended to the columns with the given stored indices into the
+    // co-moments and recalculate their coefficients. values holds the new values of each column
+    // and means the mean of each column before the batch. Returns false, changing nothing, if
+    // the co-moments of the columns are not known.
+    public boolean addRows(int[] columnIds, float[][] values, int batchCount, double[] means) {
+        if (coMoments == null) {
+            return false;
+        }
+        for (int ix = 0; ix < columnIds.length; ix++) {
+            if (Double.isNaN(coMoments[index(columnIds[ix], columnIds[ix])]) && !Double.isNaN(means[ix])) {
+                return false;
+            }
+        }
+        if (batchCount == 0) {
+            return true;
+        }
+
+        // center the batch on its own means
+        double[][] centered = new double[columnIds.length][batchCount];
+        double[] batchMeans = new double[columnIds.length];
+        for (int ix = 0; ix < columnIds.length; ix++) {
+            double sum = 0.;
+            for (int i = 0; i < batchCount; i++) {
+                sum += values[ix][i];
+            }
+            batchMeans[ix] = sum / batchCount;
+            for (int i = 0; i < batchCount; i++) {
+                centered[ix][i] = values[ix][i] - batchMeans[ix];
+            }
+        }
+
+        double total = count + batchCount;
+        double weight = count * (double) batchCount / total;
+        for (int ix = 0; ix < columnIds.length; ix++) {
+            double deltaX = batchMeans[ix] - means[ix];
+            for (int iy = ix; iy < columnIds.length; iy++) {
+                double deltaY = batchMeans[iy] - means[iy];
+                double sum = 0.;
+                for (int i = 0; i < batchCount; i++) {
+                    sum += centered[ix][i] * centered[iy][i];
+                }
+                int index = index(columnIds[ix], columnIds[iy]);
+                coMoments[index] += count == 0 ? sum : sum + deltaX * deltaY * weight;
+            }
+        }
+        count += batchCount;
+        updateCoefficients(columnIds);
+        return true;
+    }
+
+    // Take a batch of count rows that were merged into the co-moments back out, as when tuples
+    // leave a query, and recalculate the coefficients. means holds the mean of each column
+    // including the batch. Returns false, changing nothing, if the co-moments are not known or
+    // the batch holds every row.
+    public boolean removeRows(int[] columnIds, float[][] values, int batchCount, double[] means) {
+        if (coMoments == null || batchCount >= count) {
+            return false;
+        }
+        if (batchCount == 0) {
+            return true;
+        }
+
+        double[][] centered = new double[columnIds.length][batchCount];
+        double[] batchMeans = new double[columnIds.length];
+        double[] remainingMeans = new double[columnIds.length];
+        double remainingCount = count - batchCount;
+        for (int ix = 0; ix < columnIds.length; ix++) {
+            double sum = 0.;
+            for (int i = 0; i < batchCount; i++) {
+                sum += values[ix][i];
+            }
+            batchMeans[ix] = sum / batchCount;
+            remainingMeans[ix] = (count * means[ix] - sum) / remainingCount;
+            for (int i = 0; i < batchCount; i++) {
+                centered[ix][i] = values[ix][i] - batchMeans[ix];
+            }
+        }
+
+        double weight = remainingCount * batchCount / count;
+        for (int ix = 0; ix < columnIds.length; ix++) {
+            double deltaX = batchMeans[ix] - remainingMeans[ix];
+            for (int iy = ix; iy < columnIds.length; iy++) {
+                double deltaY = batchMeans[iy] - remainingMeans[iy];
+                double sum = 0.;
+                for (int i = 0; i < batchCount; i++) {
+                    sum += centered[ix][i] * centered[iy][i];
+                }
+                int index = index(columnIds[ix], columnIds[iy]);
+                coMoments[index] -= sum + deltaX * deltaY * weight;
+                if (ix == iy && coMoments[index] < 0.) {
+                    coMoments[index] = 0.;
+                }
+            }
+        }
+        count -= batchCount;
+        updateCoefficients(columnIds);
+        return true;
+    }
+
+    // set the co-moments of the given columns that hold a single value to exactly zero, removing
+    // the rounding errors left by removeRows, and recalculate the coefficients
+    public void setConstantColumns(int[] columnIds, boolean[] constant) {
+        if (coMoments == null) {
+            return;
+        }
+        for (int ix = 0; ix < columnIds.length; ix++) {
+            if (constant[ix]) {
+                for (int iy = 0; iy < columnIds.length; iy++) {
+                    coMoments[index(columnIds[ix], columnIds[iy])] = 0.;
+                }
+            }
+        }
+        updateCoefficients(columnIds);
+    }
+
+    // the coefficients can no longer be updated from the co-moments, for example because a
+    // column's coefficients were set without them
+    public void clearCoMoments() {
+        coMoments = null;
+    }
+
+    public boolean hasCoMoments() {
+        return coMoments != null;
+    }
+
+    private void updateCoefficients(int[] columnIds) {
+        for (int ix = 0; ix < columnIds.length; ix++) {
+            double sumXX = coMoments[index(columnIds[ix], columnIds[ix])];
+            for (int iy = ix; iy < columnIds.length; iy++) {
+                double sumYY = coMoments[index(columnIds[iy], columnIds[iy])];
+                float coef;
+                if (count < 2 || sumXX == 0. || sumYY == 0.) {
+                    coef = Float.NaN;
+                } else {
+                    coef = (float) (coMoments[index(columnIds[ix], columnIds[iy])] / Math.sqrt(sumXX * sumYY));
+                }
+                set(columnIds[ix], columnIds[iy], coef);
+            }
+        }
+    }
+
+    private int index(int idX, int idY) {
+        return idX <= idY ? index(idX, idY, size) : index(idY, idX, size);
+    }
+
+    // position of the coefficient of columns ix <= iy in the packed upper triangle
+    public static int index(int ix, int iy, int size) {
+        return ix * size - ix * (ix - 1) / 2 + (iy - ix);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // coefficient of the columns with the given stored indices
+    public float get(int idX, int idY) {
+        return coefficients[index(idX, idY)];
+    }
+
+    public void set(int idX, int idY, float coef) {
+        coefficients[index(idX, idY)] = coef;
+    }
+
+    // set the coefficients of every pair of the given columns
+    public void fill(int[] columnIds, float coef) {
+        for (int ix = 0; ix < columnIds.length; ix++) {
+            for (int iy = ix; iy < columnIds.length; iy++) {
+                set(columnIds[ix], columnIds[iy], coef);
+            }
+        }
+    }
+
+    // the packed upper triangle, which is not copied
+    float[] getCoefficients() {
+        return coefficients;
+    }
+
+    // Read-only view of the coefficients of the column with stored index id and each visible
+    // column of columnStore, in its current column order, as listed by SummaryStats.
+    public List<Float> getRow(int id, ColumnStore columnStore) {
+        return new Row(this, id, columnStore);
+    }
+
+    private static class Row extends AbstractList<Float> implements RandomAccess {
+        private final CorrelationMatrix matrix;
+        private final int id;
+        private final ColumnStore columnStore;
+
+        Row(CorrelationMatrix matrix, int id, ColumnStore columnStore) {
+            this.matrix = matrix;
+            this.id = id;
+            this.columnStore = columnStore;
+        }
+
+        @Override
+        public Float get(int index) {
+            return matrix.get(id, columnStore.getStoredColumnIndex(index));
+        }
+
+        @Override
+        public int size() {
+            return columnStore.getColumnCount();
+        }
+    }
+
+    // accumulate the dot products of the tiles in [fromTile, toTile) of the upper triangle, with
+    // the tiles numbered row by row
+    private static void accumulateTiles(double[][] panel, int blockSize, double[] sums, int size,
+                                        int fromTile, int toTile) {
+        int tileCount = (size + TILE_SIZE - 1) / TILE_SIZE;
+        int tileRow = 0;
+        int rowFirstTile = 0;
+        for (int tile = fromTile; tile < toTile; tile++) {
+            while (tile >= rowFirstTile + tileCount - tileRow) {
+                rowFirstTile += tileCount - tileRow;
+                tileRow++;
+            }
+            int tileColumn = tileRow + tile - rowFirstTile;
+            accumulateTile(panel, blockSize, sums, size, tileRow * TILE_SIZE, tileColumn * TILE_SIZE);
+        }
+    }
+
+    private static void accumulateTile(double[][] panel, int blockSize, double[] sums, int size,
+                                       int xStart, int yStart) {
+        int xEnd = Math.min(xStart + TILE_SIZE, size);
+        int yEnd = Math.min(yStart + TILE_SIZE, size);
+        for (int ix = xStart; ix < xEnd; ix++) {
+            double[] x = panel[ix];
+            for (int iy = Math.max(ix, yStart); iy < yEnd; iy++) {
+                double[] y = panel[iy];
+                double sum = 0.;
+                for (int i = 0; i < blockSize; i++) {
+                    sum += x[i] * y[i];
+                }
+                sums[index(ix, iy, size)] += sum;
+            }
+        }
+    }
+
+    // accumulates a range of tiles, splitting it in half while it is large; tiles write
+    // disjoint coefficients, so they need no synchronization
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] panel;
+        private final int blockSize;
+        private final double[] sums;
+        private final int size;
+        private final int fromTile;
+        private final int toTile;
+
+        TileTask(double[][] panel, int blockSize, double[] sums, int size, int fromTile, int toTile) {
+            this.panel = panel;
+            this.blockSize = blockSize;
+            this.sums = sums;
+            this.size = size;
+            this.fromTile = fromTile;
+            this.toTile = toTile;
+        }
+
+        @Override
+        protected void compute() {
+            if (toTile - fromTile <= 1) {
+                accumulateTiles(panel, blockSize, sums, size, fromTile, toTile);
+                return;
+            }
+            int middle = (fromTile + toTile) >>> 1;
+            invokeAll(new TileTask(panel, blockSize, sums, size, fromTile, middle),
+                    new TileTask(panel, blockSize, sums, size, middle, toTile));
+        }
+    }
+}
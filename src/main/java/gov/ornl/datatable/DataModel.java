@@ -1,24 +1,47 @@
 package gov.ornl.datatable;
 
-import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
 
 public class DataModel {
 	private static final int DEFAULT_NUM_HISTOGRAM_BINS = 50;
     private static final int MAX_NUM_HISTOGRAM_BINS = 100;
+	// fine bins kept by continuous histograms, from which other binnings are derived by rebin
+	private static final int HISTOGRAM_BASE_BINS = 4096;
+	// most bins of a discrete histogram with one bin per integer; a wider discrete column gets
+	// histogramBinSize bins, and its values are counted in a frequency table either way
+	private static final int MAX_NUM_DISCRETE_HISTOGRAM_BINS = 4096;
+	// least number of rows a thread fills histograms from, and values read at a time
+	private static final int HISTOGRAM_TASK_ROWS = 1 << 16;
+	private static final int HISTOGRAM_FILL_VALUES = 4096;
+	// column pair histograms kept by getHistogram2D until they are the least recently used
+	private static final int DEFAULT_HISTOGRAM_2D_CACHE_SIZE = 16;
     private final static Logger log = LoggerFactory.getLogger(DataModel.class);
 
-	protected ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+	protected ColumnStore columnStore = new ColumnStore(0);
 //	protected ArrayList<Tuple> queriedTuples = new ArrayList<Tuple>();
 	protected ArrayList<Column> columns = new ArrayList<Column>();
 	protected ArrayList<Column> disabledColumns = new ArrayList<Column>();
-    protected ArrayList<Tuple> disabledColumnTuples = new ArrayList<Tuple>();
 	protected OLSMultipleLinearRegression regression;
 
 	private ArrayList<DataModelListener> listeners = new ArrayList<DataModelListener>();
@@ -31,6 +54,33 @@ public class DataModel {
 	private Query activeQuery = new Query("Q1");
 	private int nextQueryNumber = 2;
     private int histogramBinSize = DEFAULT_NUM_HISTOGRAM_BINS;
+	// rows deleted by each tuple removal, most recent last, for undoTupleRemoval
+	private ArrayList<BitSet> tupleRemovalHistory = new ArrayList<BitSet>();
+	private ExecutorService compactionExecutor;
+	// correlations of all tuples, indexed by stored column index, or null until they are calculated
+	private CorrelationMatrix correlationMatrix;
+	// stored indices of enabled columns whose correlations are still to be added to the full and
+	// active query correlation matrices
+	private BitSet pendingCorrelations = new BitSet();
+	private BitSet pendingQueryCorrelations = new BitSet();
+	// estimate quantiles and whiskers with a quantile sketch instead of ordering the values
+	private boolean approximateStatistics = false;
+	private double quantileRankError = QuantileSketch.DEFAULT_RANK_ERROR;
+	// find the queried tuples with sorted indices of the selected columns, by stored column index
+	private boolean selectionIndexing = false;
+	private HashMap<Integer, SortedColumnIndex> selectionIndices = new HashMap<Integer, SortedColumnIndex>();
+	// pool the column statistics are calculated on, or null to calculate them on the calling thread
+	private ForkJoinPool statisticsPool;
+	private boolean ownsStatisticsPool = false;
+	// 2D histograms of column pairs by stored column indices and bin count, least recently used first
+	private int histogram2DCacheSize = DEFAULT_HISTOGRAM_2D_CACHE_SIZE;
+	private final LinkedHashMap<List<Integer>, CachedHistogram2D> histogram2DCache =
+			new LinkedHashMap<List<Integer>, CachedHistogram2D>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<Integer>, CachedHistogram2D> eldest) {
+					return size() > histogram2DCacheSize;
+				}
+			};
 
 	public DataModel() {
 
@@ -81,7 +131,7 @@ public class DataModel {
     }
 
 	public boolean isEmpty() {
-		return tuples.isEmpty();
+		return columnStore.getLiveRowCount() == 0;
 	}
 
 	public OLSMultipleLinearRegression getOLSMultipleLinearRegression() {
@@ -219,35 +269,201 @@ public class DataModel {
 			return;
 		}
 
-        histogramBinSize = (int)Math.floor(Math.sqrt(tuples.size()));
+		ColumnStore store = new ColumnStore(columns.size(), tuples.size());
+		for (Tuple tuple : tuples) {
+			store.addRow(tuple);
+		}
+		setData(store, columns);
+	}
+
+	public void setData(ColumnStore columnStore, ArrayList<Column> columns) {
+		setData(columnStore, columns, null);
+	}
+
+	// Set the data with the moments of each column already known, for example merged from the
+	// chunks of a parallel load, so the statistics skip the moment passes over the values. The
+	// statistics are calculated as they are read, so the data is set without a pass over it.
+	public void setData(ColumnStore columnStore, ArrayList<Column> columns, ColumnMoments[] columnMoments) {
+		if (columns.isEmpty()) {
+			return;
+		}
+
+        histogramBinSize = (int)Math.floor(Math.sqrt(columnStore.getLiveRowCount()));
         if (histogramBinSize > MAX_NUM_HISTOGRAM_BINS) {
             histogramBinSize = MAX_NUM_HISTOGRAM_BINS;
         }
 
 		highlightedColumn = null;
-		this.tuples.clear();
-		this.tuples.addAll(tuples);
-        disabledColumnTuples.clear();
+		this.columnStore = columnStore;
+		this.columns.clear();
+		this.columns.addAll(columns);
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			columns.get(icolumn).setStoreIndex(columnStore.getStoredColumnIndex(icolumn));
+			columns.get(icolumn).setEnabled(true);
+		}
+		this.disabledColumns.clear();
+		this.regression = null;
+		this.regressionYColumn = null;
+		this.highlightedColumn = null;
+		tupleRemovalHistory.clear();
+		clearHistogram2DCache();
+		selectionIndices.clear();
+
+		invalidateStatistics(SummaryStats.ALL);
+		if (columnMoments != null) {
+			// the moments are known, so only the histograms, quartiles and correlations are left
+			for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+				SummaryStats summaryStats = columns.get(icolumn).getSummaryStats();
+				setMomentStatistics(summaryStats, columnMoments[icolumn]);
+				summaryStats.validate(SummaryStats.MOMENTS);
+			}
+		}
+		fireDataModelChanged();
+	}
+
+	// save the data, column settings and statistics to a binary snapshot file
+	public void saveSnapshot(File file) throws IOException {
+		DataModelSnapshot.write(this, file);
+	}
+
+	// replace the data with a snapshot file; the values are mapped from the file and the
+	// statistics are read back instead of being recalculated
+	public void loadSnapshot(File file) throws IOException {
+		DataModelSnapshot.read(file, this);
+	}
+
+	void setSnapshotData(ColumnStore columnStore, ArrayList<Column> columns, ArrayList<Column> disabledColumns,
+						 int histogramBinSize, boolean approximateStatistics, double quantileRankError,
+						 CorrelationMatrix correlationMatrix) {
+		int[] storedColumnIndices = new int[columns.size()];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			storedColumnIndices[icolumn] = columns.get(icolumn).getStoreIndex();
+		}
+		columnStore.setColumnOrder(storedColumnIndices);
+
+		// the settings the statistics were calculated with, so the quantile sketches stay in use
+		this.histogramBinSize = histogramBinSize;
+		this.approximateStatistics = approximateStatistics;
+		this.quantileRankError = quantileRankError;
+		this.columnStore = columnStore;
 		this.columns.clear();
 		this.columns.addAll(columns);
 		this.disabledColumns.clear();
+		this.disabledColumns.addAll(disabledColumns);
+		this.correlationMatrix = correlationMatrix;
+		pendingCorrelations.clear();
+		clearHistogram2DCache();
+		selectionIndices.clear();
+		for (Column column : this.columns) {
+			column.getSummaryStats().setCorrelationCoefficients(correlationMatrix.getRow(column.getStoreIndex(), columnStore));
+		}
+		for (Column column : this.disabledColumns) {
+			column.getSummaryStats().setCorrelationCoefficients(correlationMatrix.getRow(column.getStoreIndex(), columnStore));
+		}
 		this.regression = null;
 		this.regressionYColumn = null;
 		this.highlightedColumn = null;
+		tupleRemovalHistory.clear();
+		clearActiveQuery();
 
-		calculateStatistics();
 		fireDataModelChanged();
 	}
 
-	public void addTuples(ArrayList<Tuple> newTuples) {
-		this.tuples.addAll(newTuples);
-		calculateStatistics();
-		fireTuplesAdded(newTuples);
+	int getHistogramBinSize() {
+		return histogramBinSize;
+	}
+
+	// Append tuples and merge them into the statistics, which listeners see updated. This takes
+	// time proportional to the number of new tuples except where a column's range grows and its
+	// histogram has to be rebuilt. Exact quartiles and whiskers are recalculated when read;
+	// approximate ones are updated in their quantile sketches. Statistics that were out of date
+	// stay so, to be calculated when read.
+	public synchronized void addTuples(ArrayList<Tuple> newTuples) {
+		int firstNewRow = columnStore.getRowCount();
+		ArrayList<Tuple> addedTuples = new ArrayList<Tuple>(newTuples.size());
+		for (Tuple tuple : newTuples) {
+			columnStore.addRow(tuple);
+			addedTuples.add(new Tuple(columnStore, columnStore.getRowCount() - 1));
+		}
+		if (!addRowsToStatistics(firstNewRow)) {
+			invalidateStatistics(SummaryStats.ALL);
+		}
+		fireTuplesAdded(addedTuples);
+	}
+
+	// Merge the rows appended from firstNewRow on into the running moments, co-moments, histogram
+	// counts and quantile sketches of the calculated statistics. Returns false, before changing
+	// anything, if the moments or histograms of a column are out of date.
+	private boolean addRowsToStatistics(int firstNewRow) {
+		if (columns.isEmpty()) {
+			return false;
+		}
+		for (Column column : columns) {
+			SummaryStats summaryStats = column.getSummaryStats();
+			if (summaryStats.isDirty(SummaryStats.MOMENTS | SummaryStats.HISTOGRAM) ||
+					summaryStats.getMoments() == null) {
+				return false;
+			}
+		}
+
+		int batchCount = columnStore.getRowCount() - firstNewRow;
+		int[] columnIds = getColumnStoreIndices();
+		float[][] batchValues = new float[columns.size()][batchCount];
+		double[] means = new double[columns.size()];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			columnStore.getColumnBuffer(icolumn).get(firstNewRow, batchValues[icolumn], 0, batchCount);
+			means[icolumn] = columns.get(icolumn).getSummaryStats().getMoments().getMean();
+		}
+		if (correlationMatrix == null || !pendingCorrelations.isEmpty() || !correlationMatrix.hasCoMoments() ||
+				!correlationMatrix.addRows(columnIds, batchValues, batchCount, means)) {
+			invalidateStatistics(SummaryStats.CORRELATIONS);
+		}
+
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			Column column = columns.get(icolumn);
+			SummaryStats summaryStats = column.getSummaryStats();
+			float[] values = batchValues[icolumn];
+
+			ColumnMoments batchMoments = new ColumnMoments();
+			for (float value : values) {
+				batchMoments.add(value);
+			}
+			ColumnMoments moments = summaryStats.getMoments();
+			moments.merge(batchMoments);
+			setMomentStatistics(summaryStats, moments);
+
+			// the bins only stay valid while the range does not change
+			Histogram histogram = summaryStats.getHistogram();
+			if ((float) histogram.min() == summaryStats.getMin() && (float) histogram.max() == summaryStats.getMax()) {
+				histogram.fill(values, 0, values.length);
+			} else {
+				calculateHistogram(column, getColumnView(icolumn), summaryStats, false);
+			}
+
+			// reading the sketch of out of date quantiles would calculate it with the new rows
+			if (summaryStats.isDirty(SummaryStats.QUANTILES)) {
+				continue;
+			}
+			QuantileSketch sketch = summaryStats.getQuantileSketch();
+			if (sketch != null) {
+				for (float value : values) {
+					sketch.update(value);
+				}
+				setSketchQuantiles(summaryStats, sketch);
+			} else {
+				summaryStats.invalidate(SummaryStats.QUANTILES, new StatisticsCalculator(column, null));
+			}
+		}
+		return true;
 	}
 
 	public void clear() {
-		tuples.clear();
-        disabledColumnTuples.clear();
+		columnStore = new ColumnStore(0);
+		correlationMatrix = null;
+		pendingCorrelations.clear();
+		tupleRemovalHistory.clear();
+		clearHistogram2DCache();
+		selectionIndices.clear();
 		clearActiveQuery();
 		this.columns.clear();
 		this.disabledColumns.clear();
@@ -269,242 +485,1073 @@ public class DataModel {
 		// }
 	}
 
-	private void calculateQueryStatistics() {
-		log.debug("Entered calculate query stats");
-		double[][] data = new double[columns.size()][];
+	// replace the statistics of the active query with ones calculated when they are read
+	private void resetQueryStatistics() {
+		activeQuery.setCorrelationMatrix(null);
+		pendingQueryCorrelations.clear();
+		for (Column column : columns) {
+			SummaryStats summaryStats = new SummaryStats();
+			summaryStats.invalidate(SummaryStats.ALL, new StatisticsCalculator(column, activeQuery));
+			activeQuery.setColumnQuerySummaryStats(column, summaryStats);
+		}
+	}
+
+	public ArrayList<Column> getColumns() {
+		return columns;
+	}
+
+	public void setColumns(ArrayList<Column> columns) {
+		highlightedColumn = null;
+		this.columns.clear();
+		this.columns.addAll(columns);
+		this.columnStore = new ColumnStore(columns.size());
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			columns.get(icolumn).setStoreIndex(icolumn);
+		}
+		fireDataModelChanged();
+	}
+
+	public ColumnStore getColumnStore() {
+		return columnStore;
+	}
+
+	// returns row views of all tuples; prefer getTuple(int) or the column accessors for large data
+	public ArrayList<Tuple> getTuples() {
+		ArrayList<Tuple> tupleViews = new ArrayList<Tuple>(columnStore.getLiveRowCount());
+		for (int ituple = 0; ituple < columnStore.getLiveRowCount(); ituple++) {
+			tupleViews.add(new Tuple(columnStore, columnStore.getLiveRow(ituple)));
+		}
+		return tupleViews;
+	}
+
+	// mark groups of the statistics of all enabled columns out of date, to be calculated when read
+	private void invalidateStatistics(int groups) {
+		if ((groups & SummaryStats.CORRELATIONS) != 0) {
+			correlationMatrix = null;
+			pendingCorrelations.clear();
+		}
+		for (Column column : columns) {
+			column.getSummaryStats().invalidate(groups, new StatisticsCalculator(column, null));
+		}
+	}
+
+	// mark groups of the statistics of the active query out of date, to be calculated when read
+	private void invalidateQueryStatistics(int groups) {
+		if ((groups & SummaryStats.CORRELATIONS) != 0) {
+			activeQuery.setCorrelationMatrix(null);
+			pendingQueryCorrelations.clear();
+		}
+		for (Column column : columns) {
+			SummaryStats summaryStats = activeQuery.getColumnQuerySummaryStats(column);
+			if (summaryStats != null) {
+				summaryStats.invalidate(groups, new StatisticsCalculator(column, activeQuery));
+			}
+		}
+	}
+
+	// calculates the statistics of a column of all tuples, or of a query, when they are read
+	private class StatisticsCalculator implements SummaryStats.Calculator {
+		private final Column column;
+		private final Query query;
+
+		StatisticsCalculator(Column column, Query query) {
+			this.column = column;
+			this.query = query;
+		}
+
+		@Override
+		public void calculate(SummaryStats summaryStats, int groups) {
+			calculateStatistics(column, query, summaryStats, groups);
+		}
+	}
+
+	// Calculate the groups of statistics of a column that are out of date. Correlations are
+	// calculated between all enabled columns at once, along with the other statistics of the
+	// columns that are out of date, which give their means. Statistics of a column or query no
+	// longer in the data model are left as they are.
+	private synchronized void calculateStatistics(Column column, Query query, SummaryStats summaryStats,
+												  int groups) {
+		if (!summaryStats.isDirty(groups)) {
+			return;
+		}
+		boolean useQuery = query != null;
+		boolean enabled = columns.contains(column);
+		if ((useQuery && query != activeQuery) || (!enabled && !disabledColumns.contains(column))) {
+			summaryStats.validate(SummaryStats.ALL);
+			return;
+		}
+
+		if ((groups & SummaryStats.CORRELATIONS) != 0) {
+			if (enabled) {
+				calculateCorrelations(useQuery);
+			}
+			summaryStats.validate(SummaryStats.CORRELATIONS);
+		}
+		if (summaryStats.isDirty(groups)) {
+			calculateColumnStatistics(new Column[] {column}, new SummaryStats[] {summaryStats}, useQuery, groups);
+		}
+	}
+
+	// Calculate the correlations between the enabled columns of all tuples or of the active
+	// query. The matrix is calculated as a whole if there is none; otherwise only the rows of
+	// the columns enabled since are added to it.
+	private void calculateCorrelations(boolean useQuery) {
+		Column[] enabledColumns = columns.toArray(new Column[columns.size()]);
+		SummaryStats[] summaryStats = new SummaryStats[columns.size()];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			summaryStats[icolumn] = getColumnStats(columns.get(icolumn), useQuery);
+		}
+		calculateColumnStatistics(enabledColumns, summaryStats, useQuery, SummaryStats.MOMENTS);
+
+		int[] columnIds = getColumnStoreIndices();
+		CorrelationMatrix matrix = useQuery ? activeQuery.getCorrelationMatrix() : correlationMatrix;
+		BitSet pending = useQuery ? pendingQueryCorrelations : pendingCorrelations;
+		if (matrix == null) {
+			if (useQuery && activeQuery.getTupleCount() < 2) {
+				matrix = new CorrelationMatrix(columnStore.getStoredColumnCount());
+				matrix.fill(columnIds, 0.f);
+			} else {
+				FloatColumnView[] views = new FloatColumnView[columns.size()];
+				double[] means = new double[columns.size()];
+				for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+					views[icolumn] = useQuery ? getColumnQueriedView(icolumn) : getColumnView(icolumn);
+					means[icolumn] = summaryStats[icolumn].getMoments().getMean();
+				}
+				matrix = CorrelationMatrix.calculate(views, means, columnIds, columnStore.getStoredColumnCount(),
+						statisticsPool);
+			}
+			if (useQuery) {
+				activeQuery.setCorrelationMatrix(matrix);
+			} else {
+				correlationMatrix = matrix;
+			}
+		} else {
+			for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+				if (pending.get(columnIds[icolumn])) {
+					addColumnCorrelations(icolumn, useQuery);
+				}
+			}
+			matrix = useQuery ? activeQuery.getCorrelationMatrix() : correlationMatrix;
+		}
+		pending.clear();
+
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			summaryStats[icolumn].setCorrelationCoefficients(matrix.getRow(columnIds[icolumn], columnStore));
+			summaryStats[icolumn].validate(SummaryStats.CORRELATIONS);
+		}
+	}
+
+	// Calculate the moments, histograms and quartiles among groups that are out of date in the
+	// statistics of columns. A column whose moments are out of date goes through the statistics
+	// kernel, which calculates all three, on the statistics pool; otherwise only its histogram
+	// or quartiles are calculated again.
+	private void calculateColumnStatistics(Column[] columns, SummaryStats[] summaryStats, boolean useQuery,
+										   int groups) {
+		if (useQuery) {
+			// query histograms take the range and bins of the full ones, which are calculated
+			// first on this thread
+			SummaryStats[] fullSummaryStats = new SummaryStats[columns.length];
+			for (int icolumn = 0; icolumn < columns.length; icolumn++) {
+				fullSummaryStats[icolumn] = columns[icolumn].getSummaryStats();
+			}
+			calculateColumnStatistics(columns, fullSummaryStats, false, SummaryStats.MOMENTS | SummaryStats.HISTOGRAM);
+		}
+
+		int kernelCount = 0;
+		Column[] kernelColumns = new Column[columns.length];
+		FloatColumnView[] kernelViews = new FloatColumnView[columns.length];
+		SummaryStats[] kernelSummaryStats = new SummaryStats[columns.length];
+		for (int icolumn = 0; icolumn < columns.length; icolumn++) {
+			Column column = columns[icolumn];
+			SummaryStats columnSummaryStats = summaryStats[icolumn];
+			if (columnSummaryStats.isDirty(SummaryStats.MOMENTS)) {
+				columnSummaryStats.validate(SummaryStats.MOMENTS | SummaryStats.HISTOGRAM | SummaryStats.QUANTILES);
+				kernelColumns[kernelCount] = column;
+				kernelViews[kernelCount] = getStatisticsView(column, useQuery);
+				kernelSummaryStats[kernelCount] = columnSummaryStats;
+				kernelCount++;
+				continue;
+			}
+			if ((groups & SummaryStats.HISTOGRAM) != 0 && columnSummaryStats.isDirty(SummaryStats.HISTOGRAM)) {
+				calculateHistograms(column, columnSummaryStats, useQuery);
+			}
+			if ((groups & SummaryStats.QUANTILES) != 0 && columnSummaryStats.isDirty(SummaryStats.QUANTILES)) {
+				columnSummaryStats.validate(SummaryStats.QUANTILES);
+				FloatColumnView view = getStatisticsView(column, useQuery);
+				calculateQuantiles(view, columnSummaryStats, new float[view.size()]);
+			}
+		}
+		if (kernelCount > 0) {
+			calculateSummaryStats(Arrays.copyOf(kernelColumns, kernelCount), Arrays.copyOf(kernelViews, kernelCount),
+					Arrays.copyOf(kernelSummaryStats, kernelCount), null, useQuery);
+		}
+	}
+
+	// view of the values of an enabled or disabled column for all tuples or the active query
+	private FloatColumnView getStatisticsView(Column column, boolean useQuery) {
+		ColumnBuffer columnBuffer = columnStore.getStoredColumnBuffer(column.getStoreIndex());
+		if (useQuery) {
+			return new RowSubsetColumnView(columnBuffer, activeQuery.getRows(), activeQuery.getTupleCount());
+		}
+		if (columnStore.hasDeletedRows()) {
+			return new RowSubsetColumnView(columnBuffer, columnStore.getLiveRows(), columnStore.getLiveRowCount());
+		}
+		return columnBuffer;
+	}
+
+	// Rebuild the histogram of a column whose moments are calculated. When the full and active
+	// query histograms are both out of date they are rebuilt together in one scan.
+	private void calculateHistograms(Column column, SummaryStats summaryStats, boolean useQuery) {
+		SummaryStats fullSummaryStats = column.getSummaryStats();
+		SummaryStats querySummaryStats = activeQuery.hasColumnSelections() ?
+				activeQuery.getColumnQuerySummaryStats(column) : null;
+		if (querySummaryStats == null || fullSummaryStats.isDirty(SummaryStats.MOMENTS) ||
+				querySummaryStats.isDirty(SummaryStats.MOMENTS) || !fullSummaryStats.isDirty(SummaryStats.HISTOGRAM) ||
+				!querySummaryStats.isDirty(SummaryStats.HISTOGRAM)) {
+			summaryStats.validate(SummaryStats.HISTOGRAM);
+			calculateHistogram(column, getStatisticsView(column, useQuery), summaryStats, useQuery);
+			return;
+		}
+
+		// the query histogram takes the bins of the full one, so that is created first
+		fullSummaryStats.validate(SummaryStats.HISTOGRAM);
+		Histogram histogram = createHistogram(column, false);
+		fullSummaryStats.setHistogram(histogram);
+		querySummaryStats.validate(SummaryStats.HISTOGRAM);
+		Histogram queryHistogram = createHistogram(column, true);
+		querySummaryStats.setHistogram(queryHistogram);
+		fillHistograms(columnStore.getStoredColumnBuffer(column.getStoreIndex()), histogram, queryHistogram);
+	}
+
+	// Fill the full and active query histograms of a column in one scan over its stored rows.
+	// Each live row goes into the full histogram, and also into the query histogram when it is
+	// among the query's ascending rows. On the statistics pool the rows are split into ranges
+	// filled into separate histograms, which are merged.
+	private void fillHistograms(ColumnBuffer columnBuffer, Histogram histogram, Histogram queryHistogram) {
+		int rowCount = columnStore.getRowCount();
+		if (statisticsPool == null || rowCount < 2 * HISTOGRAM_TASK_ROWS) {
+			fillHistograms(columnBuffer, histogram, queryHistogram, 0, rowCount);
+		} else {
+			int rowsPerTask = Math.max(HISTOGRAM_TASK_ROWS,
+					(rowCount + statisticsPool.getParallelism() - 1) / statisticsPool.getParallelism());
+			Histogram[] histograms = statisticsPool.invoke(new HistogramFillTask(columnBuffer, histogram,
+					queryHistogram, 0, rowCount, rowsPerTask));
+			histogram.merge(histograms[0]);
+			queryHistogram.merge(histograms[1]);
+		}
+	}
+
+	private void fillHistograms(ColumnBuffer columnBuffer, Histogram histogram, Histogram queryHistogram,
+								int fromRow, int toRow) {
+		int[] queryRows = activeQuery.getRows();
+		int queryCount = activeQuery.getTupleCount();
+		int queryIndex = Arrays.binarySearch(queryRows, 0, queryCount, fromRow);
+		if (queryIndex < 0) {
+			queryIndex = -queryIndex - 1;
+		}
+		boolean hasDeletedRows = columnStore.hasDeletedRows();
+		float[] values = new float[Math.min(HISTOGRAM_FILL_VALUES, toRow - fromRow)];
+		for (int row = fromRow; row < toRow; row += values.length) {
+			int count = columnBuffer.get(row, values, 0, Math.min(values.length, toRow - row));
+			for (int i = 0; i < count; i++) {
+				if (hasDeletedRows && columnStore.isDeleted(row + i)) {
+					continue;
+				}
+				histogram.fill(values[i]);
+				if (queryIndex < queryCount && queryRows[queryIndex] == row + i) {
+					queryHistogram.fill(values[i]);
+					queryIndex++;
+				}
+			}
+		}
+	}
+
+	// fills empty copies of a full and a query histogram from a range of rows, splitting it in half
+	// down to a number of rows per task, and merges the copies
+	private class HistogramFillTask extends RecursiveTask<Histogram[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final ColumnBuffer columnBuffer;
+		private final Histogram histogram;
+		private final Histogram queryHistogram;
+		private final int fromRow;
+		private final int toRow;
+		private final int rowsPerTask;
+
+		HistogramFillTask(ColumnBuffer columnBuffer, Histogram histogram, Histogram queryHistogram, int fromRow,
+						  int toRow, int rowsPerTask) {
+			this.columnBuffer = columnBuffer;
+			this.histogram = histogram;
+			this.queryHistogram = queryHistogram;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.rowsPerTask = rowsPerTask;
+		}
+
+		@Override
+		protected Histogram[] compute() {
+			if (toRow - fromRow <= rowsPerTask) {
+				Histogram[] histograms = {histogram.emptyCopy(), queryHistogram.emptyCopy()};
+				fillHistograms(columnBuffer, histograms[0], histograms[1], fromRow, toRow);
+				return histograms;
+			}
+			int middle = fromRow + (toRow - fromRow) / 2;
+			HistogramFillTask first = new HistogramFillTask(columnBuffer, histogram, queryHistogram, fromRow, middle,
+					rowsPerTask);
+			first.fork();
+			Histogram[] histograms = new HistogramFillTask(columnBuffer, histogram, queryHistogram, middle, toRow,
+					rowsPerTask).compute();
+			Histogram[] firstHistograms = first.join();
+			firstHistograms[0].merge(histograms[0]);
+			firstHistograms[1].merge(histograms[1]);
+			return firstHistograms;
+		}
+
+	}
+
+	// fill a new histogram of the column with the values in view
+	private void calculateHistogram(Column column, FloatColumnView view, SummaryStats summaryStats, boolean useQuery) {
+		Histogram histogram = createHistogram(column, useQuery);
+		histogram.fill(view);
+		summaryStats.setHistogram(histogram);
+	}
+
+	// set the range, NaN count and moment statistics from a column's moments
+	private static void setMomentStatistics(SummaryStats summaryStats, ColumnMoments moments) {
+		summaryStats.setMoments(moments);
+		summaryStats.setMin((float) moments.getMin());
+		summaryStats.setMax((float) moments.getMax());
+		summaryStats.setNumNaN((int) moments.getNaNCount());
+		summaryStats.setMean((float) moments.getMean());
+		summaryStats.setVariance((float) moments.getVariance());
+		summaryStats.setStandardDeviation((float) Math.sqrt(moments.getVariance()));
+		summaryStats.setSkewness((float) moments.getSkewness());
+		summaryStats.setKurtosis((float) moments.getKurtosis());
+	}
+
+	// Calculate the summary statistics and histograms of the views of columns into summaryStats
+	// and return their means. With a statistics pool the columns are split into one group per
+	// thread, each reusing one value buffer; every column is still calculated by the same
+	// sequential kernel, so the results do not depend on the parallelism.
+	private double[] calculateSummaryStats(Column[] columns, FloatColumnView[] views, SummaryStats[] summaryStats,
+										   ColumnMoments[] columnMoments, boolean useQuery) {
+		double[] means = new double[views.length];
+		if (statisticsPool == null || views.length < 2) {
+			calculateSummaryStats(columns, views, summaryStats, columnMoments, useQuery, means, 0, views.length);
+		} else {
+			int columnsPerTask = (views.length + statisticsPool.getParallelism() - 1) / statisticsPool.getParallelism();
+			statisticsPool.invoke(new SummaryStatsTask(columns, views, summaryStats, columnMoments, useQuery, means,
+					0, views.length, columnsPerTask));
+		}
+		return means;
+	}
+
+	private void calculateSummaryStats(Column[] columns, FloatColumnView[] views, SummaryStats[] summaryStats,
+									   ColumnMoments[] columnMoments, boolean useQuery, double[] means,
+									   int fromColumn, int toColumn) {
+		int bufferSize = 0;
+		for (int icolumn = fromColumn; icolumn < toColumn; icolumn++) {
+			bufferSize = Math.max(bufferSize, views[icolumn].size());
+		}
+		float[] valueBuffer = new float[bufferSize];
+		for (int icolumn = fromColumn; icolumn < toColumn; icolumn++) {
+			means[icolumn] = calculateSummaryStats(columns[icolumn], views[icolumn], summaryStats[icolumn],
+					valueBuffer, columnMoments == null ? null : columnMoments[icolumn], useQuery);
+		}
+	}
+
+	// calculates the statistics of a range of columns, splitting it in half down to a group size
+	private class SummaryStatsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Column[] columns;
+		private final FloatColumnView[] views;
+		private final SummaryStats[] summaryStats;
+		private final ColumnMoments[] columnMoments;
+		private final boolean useQuery;
+		private final double[] means;
+		private final int fromColumn;
+		private final int toColumn;
+		private final int columnsPerTask;
+
+		SummaryStatsTask(Column[] columns, FloatColumnView[] views, SummaryStats[] summaryStats,
+						 ColumnMoments[] columnMoments, boolean useQuery, double[] means, int fromColumn, int toColumn,
+						 int columnsPerTask) {
+			this.columns = columns;
+			this.views = views;
+			this.summaryStats = summaryStats;
+			this.columnMoments = columnMoments;
+			this.useQuery = useQuery;
+			this.means = means;
+			this.fromColumn = fromColumn;
+			this.toColumn = toColumn;
+			this.columnsPerTask = columnsPerTask;
+		}
+
+		@Override
+		protected void compute() {
+			if (toColumn - fromColumn <= columnsPerTask) {
+				calculateSummaryStats(columns, views, summaryStats, columnMoments, useQuery, means, fromColumn, toColumn);
+				return;
+			}
+			// split on a group boundary so each group keeps a single buffer
+			int groups = (toColumn - fromColumn + columnsPerTask - 1) / columnsPerTask;
+			int middle = fromColumn + (groups / 2) * columnsPerTask;
+			invokeAll(new SummaryStatsTask(columns, views, summaryStats, columnMoments, useQuery, means,
+							fromColumn, middle, columnsPerTask),
+					new SummaryStatsTask(columns, views, summaryStats, columnMoments, useQuery, means,
+							middle, toColumn, columnsPerTask));
+		}
+	}
+
+	// calculate the correlations between the column at columnIndex and every enabled column into
+	// its row of the correlation matrix, which the other columns' lists already view
+	private void addColumnCorrelations(int columnIndex, boolean useQuery) {
+		FloatColumnView view = useQuery ? getColumnQueriedView(columnIndex) : getColumnView(columnIndex);
+		CorrelationMatrix matrix = useQuery ? activeQuery.getCorrelationMatrix() : correlationMatrix;
+		if (matrix == null || matrix.size() < columnStore.getStoredColumnCount()) {
+			matrix = matrix == null ? new CorrelationMatrix(columnStore.getStoredColumnCount()) :
+					new CorrelationMatrix(matrix, columnStore.getStoredColumnCount());
+			if (useQuery) {
+				activeQuery.setCorrelationMatrix(matrix);
+			} else {
+				correlationMatrix = matrix;
+			}
+			for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+				SummaryStats summaryStats = getColumnStats(columns.get(icolumn), useQuery);
+				if (summaryStats != null) {
+					summaryStats.setCorrelationCoefficients(matrix.getRow(getColumnStoreIndex(icolumn), columnStore));
+				}
+			}
+		}
+
+		// the column has no co-moments with the others to merge changed rows into
+		matrix.clearCoMoments();
+		int columnId = getColumnStoreIndex(columnIndex);
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			float coef;
+			if (useQuery && view.size() < 2) {
+				coef = 0.f;
+			} else {
+				FloatColumnView otherView = useQuery ? getColumnQueriedView(icolumn) : getColumnView(icolumn);
+				coef = (float) correlation(view, otherView);
+			}
+			matrix.set(columnId, getColumnStoreIndex(icolumn), coef);
+		}
+		getColumnStats(columns.get(columnIndex), useQuery).setCorrelationCoefficients(matrix.getRow(columnId, columnStore));
+	}
+
+	private SummaryStats getColumnStats(Column column, boolean useQuery) {
+		return useQuery ? activeQuery.getColumnQuerySummaryStats(column) : column.getSummaryStats();
+	}
+
+	private int getColumnStoreIndex(int columnIndex) {
+		return columnStore.getStoredColumnIndex(columnIndex);
+	}
+
+	// stored column index of each enabled column, in column order
+	private int[] getColumnStoreIndices() {
+		int[] columnIds = new int[columns.size()];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			columnIds[icolumn] = getColumnStoreIndex(icolumn);
+		}
+		return columnIds;
+	}
+
+	// correlations between all tuples of the columns, indexed by stored column index; the
+	// correlation lists of the columns' summary statistics are views of it
+	public synchronized CorrelationMatrix getCorrelationMatrix() {
+		if (!columns.isEmpty() && (correlationMatrix == null || !pendingCorrelations.isEmpty())) {
+			calculateCorrelations(false);
+		}
+		return correlationMatrix;
+	}
+
+	// Counts of all tuples and active query tuples of a pair of columns in binCount x binCount
+	// bins over the columns' ranges, for drawing a scatterplot without going over the tuples.
+	// Recently used histograms are cached; a cached histogram is refilled after the data changes,
+	// and only its query counts after the active query's tuples change.
+	public synchronized Histogram2D getHistogram2D(Column xColumn, Column yColumn, int binCount) {
+		List<Integer> key = Arrays.asList(xColumn.getStoreIndex(), yColumn.getStoreIndex(), binCount);
+		CachedHistogram2D cached = histogram2DCache.get(key);
+		if (cached != null && cached.columnStore == columnStore &&
+				cached.columnStoreModificationCount == columnStore.getModificationCount()) {
+			if (cached.query != activeQuery || cached.queryModificationCount != activeQuery.getModificationCount()) {
+				fillHistogram2DQueryCounts(xColumn, yColumn, cached.histogram);
+				cached.query = activeQuery;
+				cached.queryModificationCount = activeQuery.getModificationCount();
+			}
+			return cached.histogram;
+		}
+
+		SummaryStats xSummaryStats = xColumn.getSummaryStats();
+		SummaryStats ySummaryStats = yColumn.getSummaryStats();
+		Histogram2D histogram = new Histogram2D(binCount, xSummaryStats.getMin(), xSummaryStats.getMax(),
+				ySummaryStats.getMin(), ySummaryStats.getMax());
+		fillHistogram2D(columnStore.getStoredColumnBuffer(xColumn.getStoreIndex()),
+				columnStore.getStoredColumnBuffer(yColumn.getStoreIndex()), histogram);
+		histogram2DCache.put(key, new CachedHistogram2D(histogram, columnStore, activeQuery));
+		return histogram;
+	}
+
+	public int getHistogram2DCacheSize() {
+		return histogram2DCacheSize;
+	}
+
+	// number of column pair histograms getHistogram2D keeps; 0 calculates them on every call
+	public synchronized void setHistogram2DCacheSize(int cacheSize) {
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("Cache size cannot be negative: " + cacheSize);
+		}
+		histogram2DCacheSize = cacheSize;
+		while (histogram2DCache.size() > cacheSize) {
+			histogram2DCache.remove(histogram2DCache.keySet().iterator().next());
+		}
+	}
+
+	private synchronized void clearHistogram2DCache() {
+		histogram2DCache.clear();
+	}
+
+	// whether the active query's rows are rows of the current column store
+	private boolean hasCurrentQueryRows() {
+		return activeQuery.hasColumnSelections() && activeQuery.getColumnStore() == columnStore;
+	}
+
+	// Fill a 2D histogram in one scan over the stored rows of its columns, like fillHistograms,
+	// with the rows split into ranges filled into separate histograms on the statistics pool.
+	private void fillHistogram2D(ColumnBuffer xBuffer, ColumnBuffer yBuffer, Histogram2D histogram) {
+		int rowCount = columnStore.getRowCount();
+		if (statisticsPool == null || rowCount < 2 * HISTOGRAM_TASK_ROWS) {
+			fillHistogram2D(xBuffer, yBuffer, histogram, 0, rowCount);
+		} else {
+			int rowsPerTask = Math.max(HISTOGRAM_TASK_ROWS,
+					(rowCount + statisticsPool.getParallelism() - 1) / statisticsPool.getParallelism());
+			histogram.merge(statisticsPool.invoke(new Histogram2DFillTask(xBuffer, yBuffer, histogram, 0,
+					rowCount, rowsPerTask)));
+		}
+	}
+
+	private void fillHistogram2D(ColumnBuffer xBuffer, ColumnBuffer yBuffer, Histogram2D histogram, int fromRow,
+								 int toRow) {
+		int[] queryRows = activeQuery.getRows();
+		int queryCount = hasCurrentQueryRows() ? activeQuery.getTupleCount() : 0;
+		int queryIndex = Arrays.binarySearch(queryRows, 0, queryCount, fromRow);
+		if (queryIndex < 0) {
+			queryIndex = -queryIndex - 1;
+		}
+		boolean hasDeletedRows = columnStore.hasDeletedRows();
+		float[] xValues = new float[Math.min(HISTOGRAM_FILL_VALUES, toRow - fromRow)];
+		float[] yValues = new float[xValues.length];
+		for (int row = fromRow; row < toRow; row += xValues.length) {
+			int count = xBuffer.get(row, xValues, 0, Math.min(xValues.length, toRow - row));
+			yBuffer.get(row, yValues, 0, count);
+			for (int i = 0; i < count; i++) {
+				if (hasDeletedRows && columnStore.isDeleted(row + i)) {
+					continue;
+				}
+				boolean queried = queryIndex < queryCount && queryRows[queryIndex] == row + i;
+				if (queried) {
+					queryIndex++;
+				}
+				histogram.fill(xValues[i], yValues[i], queried);
+			}
+		}
+	}
+
+	// refill the query counts of a 2D histogram from the active query's rows
+	private void fillHistogram2DQueryCounts(Column xColumn, Column yColumn, Histogram2D histogram) {
+		histogram.clearQueryCounts();
+		if (!hasCurrentQueryRows()) {
+			return;
+		}
+		FloatColumnView xView = getStatisticsView(xColumn, true);
+		FloatColumnView yView = getStatisticsView(yColumn, true);
+		float[] xValues = new float[Math.min(HISTOGRAM_FILL_VALUES, xView.size())];
+		float[] yValues = new float[xValues.length];
+		for (int index = 0; index < xView.size(); index += xValues.length) {
+			int count = xView.get(index, xValues, 0, Math.min(xValues.length, xView.size() - index));
+			yView.get(index, yValues, 0, count);
+			for (int i = 0; i < count; i++) {
+				histogram.fillQuery(xValues[i], yValues[i]);
+			}
+		}
+	}
+
+	// fills empty copies of a 2D histogram from a range of rows, like HistogramFillTask
+	private class Histogram2DFillTask extends RecursiveTask<Histogram2D> {
+		private static final long serialVersionUID = 1L;
+
+		private final ColumnBuffer xBuffer;
+		private final ColumnBuffer yBuffer;
+		private final Histogram2D histogram;
+		private final int fromRow;
+		private final int toRow;
+		private final int rowsPerTask;
+
+		Histogram2DFillTask(ColumnBuffer xBuffer, ColumnBuffer yBuffer, Histogram2D histogram, int fromRow,
+							int toRow, int rowsPerTask) {
+			this.xBuffer = xBuffer;
+			this.yBuffer = yBuffer;
+			this.histogram = histogram;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.rowsPerTask = rowsPerTask;
+		}
+
+		@Override
+		protected Histogram2D compute() {
+			if (toRow - fromRow <= rowsPerTask) {
+				Histogram2D rangeHistogram = histogram.emptyCopy();
+				fillHistogram2D(xBuffer, yBuffer, rangeHistogram, fromRow, toRow);
+				return rangeHistogram;
+			}
+			int middle = fromRow + (toRow - fromRow) / 2;
+			Histogram2DFillTask first = new Histogram2DFillTask(xBuffer, yBuffer, histogram, fromRow, middle,
+					rowsPerTask);
+			first.fork();
+			Histogram2D secondHistogram = new Histogram2DFillTask(xBuffer, yBuffer, histogram, middle, toRow,
+					rowsPerTask).compute();
+			Histogram2D firstHistogram = first.join();
+			firstHistogram.merge(secondHistogram);
+			return firstHistogram;
+		}
+	}
+
+	// a cached 2D histogram with the data and query versions it was filled from
+	private static class CachedHistogram2D {
+		private final Histogram2D histogram;
+		private final ColumnStore columnStore;
+		private final int columnStoreModificationCount;
+		private Query query;
+		private int queryModificationCount;
+
+		CachedHistogram2D(Histogram2D histogram, ColumnStore columnStore, Query query) {
+			this.histogram = histogram;
+			this.columnStore = columnStore;
+			this.columnStoreModificationCount = columnStore.getModificationCount();
+			this.query = query;
+			this.queryModificationCount = query.getModificationCount();
+		}
+	}
+
+	// Fills summaryStats with the descriptive statistics and histogram of the values in view and
+	// returns their mean, calculated the same way as commons-math DescriptiveStatistics. The
+	// values are copied once into valueBuffer, which must have room for view.size() values. A
+	// first sweep finds the range, sum and NaN count; a second accumulates the deviations from
+	// the mean, fills the histogram and packs the values other than NaN to the front of the
+	// buffer. The quantiles and whiskers are then found by partially ordering the packed values
+	// instead of sorting them, or in approximate mode estimated from a quantile sketch filled
+	// in the same sweep. If the moments of the values are given, they replace the first
+	// sweep and the deviations. Query histograms share the range and bins of the full histogram.
+	private double calculateSummaryStats(Column column, FloatColumnView view, SummaryStats summaryStats,
+										 float[] valueBuffer, ColumnMoments moments, boolean useQuery) {
+		int n = view.get(0, valueBuffer, 0, view.size());
+		double min = Double.NaN;
+		double max = Double.NaN;
+		double mean = Double.NaN;
+		double variance = Double.NaN;
+		double skewness = Double.NaN;
+		double kurtosis = Double.NaN;
+		int nanCount = 0;
+		double sum = 0.;
+		if (moments != null) {
+			min = moments.getMin();
+			max = moments.getMax();
+			mean = moments.getMean();
+			variance = moments.getVariance();
+			skewness = moments.getSkewness();
+			kurtosis = moments.getKurtosis();
+			nanCount = (int)moments.getNaNCount();
+		} else {
+			for (int i = 0; i < n; i++) {
+				float value = valueBuffer[i];
+				sum += value;
+				if (Float.isNaN(value)) {
+					nanCount++;
+				} else {
+					if (Double.isNaN(min) || value < min) {
+						min = value;
+					}
+					if (Double.isNaN(max) || value > max) {
+						max = value;
+					}
+				}
+			}
+		}
+		summaryStats.setMax((float) max);
+		summaryStats.setMin((float) min);
+		summaryStats.setNumNaN(nanCount);
+
+		// calculate frequency information for column
+		Histogram histogram = createHistogram(column, useQuery);
+		summaryStats.setHistogram(histogram);
+
+		boolean accumulateMoments = moments == null && n > 0;
+		double xbar = sum / n;
+		double sumD = 0., sumD2 = 0., sumD3 = 0., sumD4 = 0.;
+		int valueCount = 0;
+		QuantileSketch sketch = approximateStatistics ? new QuantileSketch(quantileRankError) : null;
+		summaryStats.setQuantileSketch(sketch);
+		for (int i = 0; i < n; i++) {
+			float value = valueBuffer[i];
+			if (accumulateMoments) {
+				double d = value - xbar;
+				double d2 = d * d;
+				sumD += d;
+				sumD2 += d2;
+				sumD3 += d2 * d;
+				sumD4 += d2 * d2;
+			}
+			histogram.fill(value);
+			if (sketch != null) {
+				sketch.update(value);
+			} else if (!Float.isNaN(value)) {
+				valueBuffer[valueCount++] = value;
+			}
+		}
+
+		if (accumulateMoments) {
+			// correct the mean for rounding error and shift the moments to the corrected mean
+			double c = sumD / n;
+			mean = xbar + c;
+			double m2 = sumD2 - n * c * c;
+			double m3 = sumD3 - 3. * c * sumD2 + 2. * n * c * c * c;
+			double m4 = sumD4 - 4. * c * sumD3 + 6. * c * c * sumD2 - 3. * n * c * c * c * c;
+
+			variance = n == 1 ? 0. : m2 / (n - 1);
+			if (n > 2) {
+				skewness = ((double)n / ((n - 1.) * (n - 2.))) * (m3 / (variance * Math.sqrt(variance)));
+			}
+			if (n > 3) {
+				double coefficientOne = ((double)n * (n + 1.)) / ((n - 1.) * (n - 2.) * (n - 3.));
+				double termTwo = (3. * (n - 1.) * (n - 1.)) / ((n - 2.) * (n - 3.));
+				kurtosis = coefficientOne * (m4 / (variance * variance)) - termTwo;
+			}
+			summaryStats.setMoments(ColumnMoments.fromSums(n, nanCount, mean, m2, m3, m4, min, max));
+		} else {
+			summaryStats.setMoments(moments != null ? moments : new ColumnMoments());
+		}
+
+		summaryStats.setMean((float) mean);
+		summaryStats.setVariance((float) variance);
+		summaryStats.setStandardDeviation((float) Math.sqrt(variance));
+		summaryStats.setSkewness((float) skewness);
+		summaryStats.setKurtosis((float) kurtosis);
+
+		if (sketch != null) {
+			setSketchQuantiles(summaryStats, sketch);
+		} else {
+			setExactQuantiles(summaryStats, valueBuffer, valueCount);
+		}
+
+		return mean;
+	}
+
+	// empty histogram of a column over the range of the column's statistics; query histograms
+	// share the bins of the full histogram
+	private Histogram createHistogram(Column column, boolean useQuery) {
+		if (column.isContinuous()) {
+			return new Histogram(column.getName(),
+					histogramBinSize, column.getSummaryStats().getMin(),
+					column.getSummaryStats().getMax(), HISTOGRAM_BASE_BINS);
+		} else {
+			int numBins;
+			if (useQuery) {
+				numBins = column.getSummaryStats().getHistogram().numberOfBins();
+			} else {
+				long integerCount = (long)column.getSummaryStats().getMax() -
+						(long)column.getSummaryStats().getMin() + 1;
+				numBins = integerCount <= MAX_NUM_DISCRETE_HISTOGRAM_BINS ? (int)integerCount : histogramBinSize;
+			}
+			Histogram histogram = new Histogram(column.getName(), numBins, column.getSummaryStats().getMin(),
+					column.getSummaryStats().getMax());
+			histogram.countDistinctValues();
+			return histogram;
+		}
+	}
+
+	// set the quartiles and whiskers of the first count values, which are partially reordered
+	private static void setExactQuantiles(SummaryStats summaryStats, float[] values, int count) {
+		// put the values the quantiles interpolate between in their sorted positions
+		int[] ranks = new int[6];
+		addPercentileRanks(count, 25, ranks, 0);
+		addPercentileRanks(count, 50, ranks, 2);
+		addPercentileRanks(count, 75, ranks, 4);
+		if (count > 0) {
+			Arrays.sort(ranks);
+			int rankCount = 0;
+			for (int rank : ranks) {
+				if (rankCount == 0 || rank != ranks[rankCount - 1]) {
+					ranks[rankCount++] = rank;
+				}
+			}
+			selectRanks(values, 0, count, ranks, 0, rankCount);
+		}
+		summaryStats.setMedian((float) percentile(values, count, 50));
+		summaryStats.setQuantile1((float) percentile(values, count, 25));
+		summaryStats.setQuantile3((float) percentile(values, count, 75));
+
+		// calculate whiskers for box plot 1.5 of IQR
+		float iqr_range = 1.5f * summaryStats.getIQR();
+		float lowerFence = summaryStats.getQuantile1() - iqr_range;
+		float upperFence = summaryStats.getQuantile3() + iqr_range;
+
+		// find upper datum that is not greater than upper fence
+		if (upperFence >= summaryStats.getMax()) {
+			summaryStats.setUpperWhisker(summaryStats.getMax());
+		} else if (count > 0) {
+			// the fence is at least the third quartile, so the datum is at or after the
+			// lower value the third quartile interpolates from
+			float whisker = Float.NaN;
+			for (int i = ranks[4]; i < count; i++) {
+				if (values[i] <= upperFence && (Float.isNaN(whisker) || values[i] > whisker)) {
+					whisker = values[i];
+				}
+			}
+			if (!Float.isNaN(whisker)) {
+				summaryStats.setUpperWhisker(whisker);
+			}
+		}
+
+		if (lowerFence <= summaryStats.getMin()) {
+			summaryStats.setLowerWhisker(summaryStats.getMin());
+		} else if (count > 0) {
+			// likewise the datum is at or before the upper value of the first quartile
+			float whisker = Float.NaN;
+			for (int i = 0; i <= ranks[1]; i++) {
+				if (values[i] >= lowerFence && (Float.isNaN(whisker) || values[i] < whisker)) {
+					whisker = values[i];
+				}
+			}
+			if (!Float.isNaN(whisker)) {
+				summaryStats.setLowerWhisker(whisker);
+			}
+		}
+	}
+
+	// set the quartiles and whiskers estimated by a quantile sketch
+	private static void setSketchQuantiles(SummaryStats summaryStats, QuantileSketch sketch) {
+		summaryStats.setMedian((float) sketch.getPercentile(50));
+		summaryStats.setQuantile1((float) sketch.getPercentile(25));
+		summaryStats.setQuantile3((float) sketch.getPercentile(75));
+
+		float iqr_range = 1.5f * summaryStats.getIQR();
+		float lowerFence = summaryStats.getQuantile1() - iqr_range;
+		float upperFence = summaryStats.getQuantile3() + iqr_range;
+		float upperWhisker = sketch.getLargestValueAtMost(upperFence);
+		if (!Float.isNaN(upperWhisker)) {
+			summaryStats.setUpperWhisker(upperWhisker);
+		}
+		float lowerWhisker = sketch.getSmallestValueAtLeast(lowerFence);
+		if (!Float.isNaN(lowerWhisker)) {
+			summaryStats.setLowerWhisker(lowerWhisker);
+		}
+	}
+
+	// store the indices of the sorted values that percentile p of n values interpolates between
+	private static void addPercentileRanks(int n, double p, int[] ranks, int offset) {
+		double pos = p * (n + 1) / 100.;
+		if (n <= 1 || pos < 1) {
+			ranks[offset] = ranks[offset + 1] = 0;
+		} else if (pos >= n) {
+			ranks[offset] = ranks[offset + 1] = n - 1;
+		} else {
+			ranks[offset + 1] = (int) Math.floor(pos);
+			ranks[offset] = ranks[offset + 1] - 1;
+		}
+	}
+
+	// Partially order values[from, to) so the value at each of the ascending, distinct ranks is the
+	// one it would be if the range were sorted, with no greater value before it and no smaller after.
+	private static void selectRanks(float[] values, int from, int to, int[] ranks, int rankFrom, int rankTo) {
+		while (rankFrom < rankTo) {
+			int middle = (rankFrom + rankTo) >>> 1;
+			int rank = ranks[middle];
+			select(values, from, to, rank);
+			selectRanks(values, from, rank, ranks, rankFrom, middle);
+			from = rank + 1;
+			rankFrom = middle + 1;
+		}
+	}
 
-		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
-			Column column = columns.get(icolumn);
-			data[icolumn] = getColumnQueriedValues(icolumn);
-			DescriptiveStatistics stats = new DescriptiveStatistics(data[icolumn]);
-
-			SummaryStats columnSummaryStats = new SummaryStats();
-			activeQuery.setColumnQuerySummaryStats(column, columnSummaryStats);
-
-			columnSummaryStats.setMean((float) stats.getMean());
-			columnSummaryStats.setMedian((float) stats.getPercentile(50));
-			columnSummaryStats.setVariance((float) stats.getVariance());
-			columnSummaryStats.setStandardDeviation((float)stats.getStandardDeviation());
-			columnSummaryStats.setQuantile1((float)stats.getPercentile(25));
-			columnSummaryStats.setQuantile3((float)stats.getPercentile(75));
-			columnSummaryStats.setSkewness((float)stats.getSkewness());
-			columnSummaryStats.setKurtosis((float)stats.getKurtosis());
-			columnSummaryStats.setMax((float)stats.getMax());
-			columnSummaryStats.setMin((float)stats.getMin());
-//			column.setQueryMean((float) stats.getMean());
-//			column.setQueryMedian((float) stats.getPercentile(50));
-//			column.setQueryVariance((float) stats.getVariance());
-//			column.setQueryStandardDeviation((float) stats
-//					.getStandardDeviation());
-//			column.setQueryQ1((float) stats.getPercentile(25));
-//			column.setQueryQ3((float) stats.getPercentile(75));
-//			column.setQuerySkewness((float) stats.getSkewness());
-//			column.setQueryKurtosis((float) stats.getKurtosis());
-//			column.setQueryMaxValue((float) stats.getMax());
-//			column.setQueryMinValue((float) stats.getMin());
-
-			// calculate whiskers for box plot 1.5 of IQR
-			float iqr_range = 1.5f * columnSummaryStats.getIQR();
-			float lowerFence = columnSummaryStats.getQuantile1() - iqr_range;
-			float upperFence = columnSummaryStats.getQuantile3() + iqr_range;
-//			float iqr_range = 1.5f * column.getQueryIQR();
-//			float lowerFence = column.getQueryQ1() - iqr_range;
-//			float upperFence = column.getQueryQ3() + iqr_range;
-			double sorted_data[] = stats.getSortedValues();
-//			double sorted_data[] = Arrays.copyOf(data[icolumn],
-//					data[icolumn].length);
-//			Arrays.sort(sorted_data);
-
-			// find upper datum that is not greater than upper fence
-//			if (upperFence >= column.getMaxQueryValue()) {
-//				column.setQueryUpperWhisker(column.getMaxQueryValue());
-			if (upperFence >= columnSummaryStats.getMax()) {
-				columnSummaryStats.setUpperWhisker(columnSummaryStats.getMax());
-			} else {
-				// find largest datum not larger than upper fence value
-				for (int i = sorted_data.length - 1; i >= 0; i--) {
-					if (sorted_data[i] <= upperFence) {
-						columnSummaryStats.setUpperWhisker((float)sorted_data[i]);
-//						column.setQueryUpperWhisker((float) sorted_data[i]);
-						break;
-					}
-				}
+	// quickselect with three-way partitioning, which stays fast for columns of repeated values
+	private static void select(float[] values, int from, int to, int rank) {
+		int maxPartitions = 2 * (32 - Integer.numberOfLeadingZeros(to - from)) + 8;
+		while (to - from > 16) {
+			if (maxPartitions-- == 0) {
+				Arrays.sort(values, from, to);
+				return;
 			}
 
-//			if (lowerFence <= column.getMinQueryValue()) {
-//				column.setQueryLowerWhisker(column.getMinQueryValue());
-			if (lowerFence <= columnSummaryStats.getMin()) {
-				columnSummaryStats.setLowerWhisker(columnSummaryStats.getMin());
-			} else {
-				// find smallest datum not less than lower fence value
-				for (int i = 0; i < sorted_data.length; i++) {
-					if (sorted_data[i] >= lowerFence) {
-						columnSummaryStats.setLowerWhisker((float)sorted_data[i]);
-//						column.setQueryLowerWhisker((float) sorted_data[i]);
-						break;
-					}
+			int middle = (from + to) >>> 1;
+			float a = values[from], b = values[middle], c = values[to - 1];
+			float pivot = a < b ? (b < c ? b : (a < c ? c : a)) : (a < c ? a : (b < c ? c : b));
+
+			int lessEnd = from, i = from, greaterStart = to;
+			while (i < greaterStart) {
+				float value = values[i];
+				if (value < pivot) {
+					values[i++] = values[lessEnd];
+					values[lessEnd++] = value;
+				} else if (value > pivot) {
+					values[i] = values[--greaterStart];
+					values[greaterStart] = value;
+				} else {
+					i++;
 				}
 			}
 
-			// calculate frequency information for column
-            Histogram histogram;
-            if (column.isContinuous()) {
-                histogram = new Histogram(column.getName(),
-                        histogramBinSize, column.getSummaryStats().getMin(),
-                        column.getSummaryStats().getMax());
-            } else {
-                int numBins = column.getSummaryStats().getHistogram().numberOfBins();
-                histogram = new Histogram(column.getName(), numBins, column.getSummaryStats().getMin(),
-                        column.getSummaryStats().getMax());
-            }
-            columnSummaryStats.setHistogram(histogram);
-
-//			Histogram histogram = new Histogram(column.getName(),
-//					DEFAULT_NUM_HISTOGRAM_BINS, column.getSummaryStats().getMin(),
-//					column.getSummaryStats().getMax());
-//			columnSummaryStats.setHistogram(histogram);
-			for (double value : data[icolumn]) {
-				histogram.fill(value);
+			if (rank < lessEnd) {
+				to = lessEnd;
+			} else if (rank >= greaterStart) {
+				from = greaterStart;
+			} else {
+				return;
 			}
 		}
+		Arrays.sort(values, from, to);
+	}
 
-		PearsonsCorrelation pCorr = new PearsonsCorrelation();
-
-		for (int ix = 0; ix < columns.size(); ix++) {
-			Column column = columns.get(ix);
-			SummaryStats columnSummaryStats = activeQuery.getColumnQuerySummaryStats(column);
-
-			ArrayList<Float> coefList = new ArrayList<Float>();
-
-			for (int iy = 0; iy < columns.size(); iy++) {
-				try {
-					double coef = pCorr.correlation(data[ix], data[iy]);
-					coefList.add((float) coef);
-				} catch (Exception ex) {
-					coefList.add(0.f);
-				}
-			}
-			columnSummaryStats.setCorrelationCoefficients(coefList);
+	// percentile of the first n values using the commons-math legacy estimation; only the
+	// values at the indices given by addPercentileRanks have to be in sorted position
+	private static double percentile(float[] sorted, int n, double p) {
+		if (n == 0) {
+			return Double.NaN;
+		}
+		if (n == 1) {
+			return sorted[0];
+		}
+		double pos = p * (n + 1) / 100.;
+		double fpos = Math.floor(pos);
+		int intPos = (int) fpos;
+		double dif = pos - fpos;
+		if (pos < 1) {
+			return sorted[0];
+		}
+		if (pos >= n) {
+			return sorted[n - 1];
 		}
+		double lower = sorted[intPos - 1];
+		double upper = sorted[intPos];
+		return lower + dif * (upper - lower);
 	}
 
-	public ArrayList<Column> getColumns() {
-		return columns;
+	// Pearson's correlation coefficient of two equally sized views
+	private static double correlation(FloatColumnView x, FloatColumnView y) {
+		double sumX = 0., sumY = 0.;
+		for (int i = 0; i < x.size(); i++) {
+			sumX += x.get(i);
+			sumY += y.get(i);
+		}
+		return correlation(x, sumX / x.size(), y, sumY / y.size());
 	}
 
-	public void setColumns(ArrayList<Column> columns) {
-		highlightedColumn = null;
-		this.columns.clear();
-		this.columns.addAll(columns);
-		this.tuples.clear();
-		fireDataModelChanged();
+	// Pearson's correlation coefficient of two equally sized views with known means
+	private static double correlation(FloatColumnView x, double xMean, FloatColumnView y, double yMean) {
+		double sumXY = 0., sumXX = 0., sumYY = 0.;
+		for (int i = 0; i < x.size(); i++) {
+			double dx = x.get(i) - xMean;
+			double dy = y.get(i) - yMean;
+			sumXY += dx * dy;
+			sumXX += dx * dx;
+			sumYY += dy * dy;
+		}
+		if (x.size() < 2 || sumXX == 0. || sumYY == 0.) {
+			return Double.NaN;
+		}
+		return sumXY / Math.sqrt(sumXX * sumYY);
 	}
 
-	public ArrayList<Tuple> getTuples() {
-		return tuples;
+	public boolean isApproximateStatistics() {
+		return approximateStatistics;
 	}
 
-	private void calculateStatistics() {
-		double[][] data = new double[columns.size()][];
+	// Estimate the quartiles and whiskers from mergeable quantile sketches rather than exact
+	// selection, which bounds the work and memory of the quantiles on very large columns.
+	public void setApproximateStatistics(boolean approximateStatistics) {
+		if (this.approximateStatistics != approximateStatistics) {
+			this.approximateStatistics = approximateStatistics;
+			recalculateStatistics();
+		}
+	}
 
-		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
-			Column column = columns.get(icolumn);
+	public boolean isSelectionIndexing() {
+		return selectionIndexing;
+	}
 
-			data[icolumn] = getColumnValues(icolumn);
+	// Find the queried tuples from indices of the selected columns' rows sorted by value, which
+	// turn each selection range into two binary searches. The indices are built when a column is
+	// first selected and take twice the memory of the column.
+	public synchronized void setSelectionIndexing(boolean selectionIndexing) {
+		this.selectionIndexing = selectionIndexing;
+		if (!selectionIndexing) {
+			selectionIndices.clear();
+		}
+	}
 
-//			int nanCounter = 0;
-//			for (double value : data[icolumn]) {
-//				if (Double.isNaN(value)) {
-//					nanCounter++;
-//				}
-//			}
-//
-//			log.debug("Number of NaN values for column " + column.getName() + " is " + nanCounter);
-
-			// calculate descriptive statistics
-			DescriptiveStatistics stats = new DescriptiveStatistics(data[icolumn]);
-
-			column.getSummaryStats().setMean((float) stats.getMean());
-			column.getSummaryStats().setMedian((float) stats.getPercentile(50));
-			column.getSummaryStats().setVariance((float) stats.getVariance());
-			column.getSummaryStats().setStandardDeviation((float) stats.getStandardDeviation());
-			column.getSummaryStats().setMax((float) stats.getMax());
-			column.getSummaryStats().setMin((float) stats.getMin());
-			column.getSummaryStats().setQuantile1((float) stats.getPercentile(25));
-			column.getSummaryStats().setQuantile3((float) stats.getPercentile(75));
-			column.getSummaryStats().setSkewness((float) stats.getSkewness());
-			column.getSummaryStats().setKurtosis((float) stats.getKurtosis());
-
-			// calculate whiskers for box plot 1.5 of IQR
-			float iqr_range = 1.5f * column.getSummaryStats().getIQR();
-			float lowerFence = column.getSummaryStats().getQuantile1() - iqr_range;
-			float upperFence = column.getSummaryStats().getQuantile3() + iqr_range;
-			double sorted_data[] = stats.getSortedValues();
-
-			// find upper datum that is not greater than upper fence
-			if (upperFence >= column.getSummaryStats().getMax()) {
-				column.getSummaryStats().setUpperWhisker(column.getSummaryStats().getMax());
-			} else {
-				// find largest datum not larger than upper fence value
-				for (int i = sorted_data.length - 1; i >= 0; i--) {
-					if (sorted_data[i] <= upperFence) {
-						column.getSummaryStats().setUpperWhisker((float) sorted_data[i]);
-						break;
-					}
-				}
-			}
+	public double getQuantileRankError() {
+		return quantileRankError;
+	}
 
-			if (lowerFence <= column.getSummaryStats().getMin()) {
-				column.getSummaryStats().setLowerWhisker(column.getSummaryStats().getMin());
-			} else {
-				// find smallest datum not less than lower fence value
-				for (int i = 0; i < sorted_data.length; i++) {
-					if (sorted_data[i] >= lowerFence) {
-						column.getSummaryStats().setLowerWhisker((float) sorted_data[i]);
-						break;
-					}
-				}
+	// maximum error, as a fraction of the values, of the rank of approximate quantiles
+	public void setQuantileRankError(double quantileRankError) {
+		QuantileSketch.kForRankError(quantileRankError);
+		if (this.quantileRankError != quantileRankError) {
+			this.quantileRankError = quantileRankError;
+			if (approximateStatistics) {
+				recalculateStatistics();
 			}
+		}
+	}
 
-			// calculate frequency information for column
-            Histogram histogram;
-            if (column.isContinuous()) {
-                histogram = new Histogram(column.getName(),
-                        histogramBinSize, column.getSummaryStats().getMin(),
-                        column.getSummaryStats().getMax());
-            } else {
-                int numBins = ((int)column.getSummaryStats().getMax() - (int)column.getSummaryStats().getMin()) + 1;
-                histogram = new Histogram(column.getName(), numBins, column.getSummaryStats().getMin(),
-                        column.getSummaryStats().getMax());
-            }
-            column.getSummaryStats().setHistogram(histogram);
+	public int getStatisticsParallelism() {
+		return statisticsPool == null ? 1 : statisticsPool.getParallelism();
+	}
 
-			for (double value : data[icolumn]) {
-				histogram.fill(value);
-			}
+	// Calculate the statistics of the columns on the given number of threads; 1 calculates them
+	// one column after another on the calling thread. Capping this keeps an interactive
+	// application responsive while batch processing can use every core.
+	public void setStatisticsParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
 		}
+		if (parallelism == getStatisticsParallelism() && (ownsStatisticsPool || parallelism == 1)) {
+			return;
+		}
+		setStatisticsPool(parallelism > 1 ? new ForkJoinPool(parallelism) : null);
+		ownsStatisticsPool = parallelism > 1;
+	}
 
-		PearsonsCorrelation pCorr = new PearsonsCorrelation();
+	public ForkJoinPool getStatisticsPool() {
+		return statisticsPool;
+	}
 
-		for (int ix = 0; ix < columns.size(); ix++) {
-			Column column = columns.get(ix);
-			ArrayList<Float> coefList = new ArrayList<Float>();
+	// calculate the statistics of the columns on a shared pool, such as ForkJoinPool.commonPool(),
+	// or on the calling thread if pool is null
+	public void setStatisticsPool(ForkJoinPool pool) {
+		if (ownsStatisticsPool) {
+			statisticsPool.shutdown();
+		}
+		statisticsPool = pool;
+		ownsStatisticsPool = false;
+	}
 
-			for (int iy = 0; iy < columns.size(); iy++) {
-				double coef = pCorr.correlation(data[ix], data[iy]);
-				coefList.add((float) coef);
-			}
-			column.getSummaryStats().setCorrelationCoefficients(coefList);
+	// only the quartiles and whiskers depend on the quantile settings
+	private void recalculateStatistics() {
+		if (columns.isEmpty()) {
+			return;
 		}
+		invalidateStatistics(SummaryStats.QUANTILES);
+		invalidateQueryStatistics(SummaryStats.QUANTILES);
+		fireDataModelChanged();
 	}
 
+    // only the binning of the column's full and query histograms depends on whether it is discrete
     public void makeColumnDiscrete(Column column) {
         if (column.isContinuous()) {
             column.makeDiscrete();
-            calculateStatistics();
-            if (activeQuery.hasColumnSelections()) {
-                calculateQueryStatistics();
-            }
+            invalidateHistograms(column);
             fireDataModelChanged();
         }
     }
@@ -512,14 +1559,20 @@ public class DataModel {
     public void makeColumnContinuous(Column column) {
         if (column.isDiscrete()) {
             column.makeContinuous();
-            calculateStatistics();
-            if (activeQuery.hasColumnSelections()) {
-                calculateQueryStatistics();
-            }
+            invalidateHistograms(column);
             fireDataModelChanged();
         }
     }
 
+    // mark the full and active query histograms of a column out of date, to be rebuilt when read
+    private void invalidateHistograms(Column column) {
+        column.getSummaryStats().invalidate(SummaryStats.HISTOGRAM, new StatisticsCalculator(column, null));
+        SummaryStats querySummaryStats = activeQuery.getColumnQuerySummaryStats(column);
+        if (querySummaryStats != null) {
+            querySummaryStats.invalidate(SummaryStats.HISTOGRAM, new StatisticsCalculator(column, activeQuery));
+        }
+    }
+
 	public OLSMultipleLinearRegression calculateOLSMultipleLinearRegression(
 			Column yColumn) {
 		regression = new OLSMultipleLinearRegression();
@@ -530,16 +1583,19 @@ public class DataModel {
 		double[] y = new double[getTupleCount()];
 		double[][] x = new double[getTupleCount()][getColumnCount() - 1];
 
-		for (int i = 0; i < tuples.size(); i++) {
-			Tuple tuple = tuples.get(i);
-			y[i] = tuple.getElement(yItemIndex);
-
-			for (int j = 0, k = 0; j < getColumnCount(); j++) {
-				if (j == yItemIndex) {
-					continue;
-				}
-				x[i][k++] = tuple.getElement(j);
+		FloatColumnView yView = getColumnView(yItemIndex);
+		for (int i = 0; i < y.length; i++) {
+			y[i] = yView.get(i);
+		}
+		for (int j = 0, k = 0; j < getColumnCount(); j++) {
+			if (j == yItemIndex) {
+				continue;
 			}
+			FloatColumnView xView = getColumnView(j);
+			for (int i = 0; i < y.length; i++) {
+				x[i][k] = xView.get(i);
+			}
+			k++;
 		}
 
 		regression.newSampleData(y, x);
@@ -556,28 +1612,40 @@ public class DataModel {
 		return regression;
 	}
 
-	public double[] getColumnValues(int columnIndex) {
-		Column column = columns.get(columnIndex);
+	// zero-copy view of all values of a column, skipping deleted tuples
+	public FloatColumnView getColumnView(int columnIndex) {
+		if (columnStore.hasDeletedRows()) {
+			return new RowSubsetColumnView(columnStore.getColumnBuffer(columnIndex), columnStore.getLiveRows(),
+					columnStore.getLiveRowCount());
+		}
+		return columnStore.getColumnBuffer(columnIndex);
+	}
+
+	// zero-copy view of the values of a column for the tuples in the active query
+	public FloatColumnView getColumnQueriedView(int columnIndex) {
+		return new RowSubsetColumnView(columnStore.getColumnBuffer(columnIndex), activeQuery.getRows(),
+				activeQuery.getTupleCount());
+	}
 
-		double[] values = new double[tuples.size()];
+	// returns a copy of the column values; use getColumnView to read them without copying
+	public double[] getColumnValues(int columnIndex) {
+		FloatColumnView view = getColumnView(columnIndex);
+		double[] values = new double[view.size()];
 
-		for (int ituple = 0; ituple < tuples.size(); ituple++) {
-			Tuple tuple = tuples.get(ituple);
-			values[ituple] = tuple.getElement(columnIndex);
+		for (int ituple = 0; ituple < values.length; ituple++) {
+			values[ituple] = view.get(ituple);
 		}
 
 		return values;
 	}
 
 	public double[] getColumnQueriedValues(int columnIndex) {
-		Column column = columns.get(columnIndex);
-
 //		double[] values = new double[queriedTuples.size()];
-		double[] values = new double[activeQuery.getTuples().size()];
+		FloatColumnView view = getColumnQueriedView(columnIndex);
+		double[] values = new double[view.size()];
 
-		for (int ituple = 0; ituple < activeQuery.getTuples().size(); ituple++) {
-			Tuple tuple = activeQuery.getTuples().get(ituple);
-			values[ituple] = tuple.getElement(columnIndex);
+		for (int ituple = 0; ituple < values.length; ituple++) {
+			values[ituple] = view.get(ituple);
 		}
 
 		return values;
@@ -590,7 +1658,7 @@ public class DataModel {
 	}
 
 	public Tuple getTuple(int idx) {
-		return tuples.get(idx);
+		return new Tuple(columnStore, columnStore.getLiveRow(idx));
 	}
 
 	public Column getColumn(int idx) {
@@ -628,7 +1696,7 @@ public class DataModel {
 	// }
 	//
 	public int getTupleCount() {
-		return tuples.size();
+		return columnStore.getLiveRowCount();
 	}
 
 	public int getColumnCount() {
@@ -661,113 +1729,70 @@ public class DataModel {
 		// highlightedColumn = null;
 		// }
 		if (!disabledColumns.contains(disabledColumn)) {
-            int disabledColumnIndex = columns.indexOf(disabledColumn);
-            removeTupleElementsForColumn(disabledColumn);
-			disabledColumn.setEnabled(false);
-			if (disabledColumn == this.highlightedColumn) {
-				highlightedColumn = null;
-                fireHighlightedColumnChanged();
-			}
-			disabledColumns.add(disabledColumn);
-            columns.remove(disabledColumn);
-            clearActiveQueryColumnSelection(disabledColumn);
-            for (Column column : columns) {
-                column.getSummaryStats().getCorrelationCoefficients().remove(disabledColumnIndex);
-            }
+            hideColumn(disabledColumn);
+            updateColumnOrder();
 			fireColumnDisabled(disabledColumn);
 		}
 	}
 
-    // get index of column and remove all tuple elements at this index
-    // add the tuple elements to a list of disabledColumnTuples for later enabling
-    private void removeTupleElementsForColumn(Column column) {
-        int columnIndex = columns.indexOf(column);
-
-        for (int iTuple = 0; iTuple < tuples.size(); iTuple++) {
-            Tuple tuple = tuples.get(iTuple);
-            float elementValue = tuple.getElement(columnIndex);
-            tuple.removeElement(columnIndex);
-
-            if (disabledColumnTuples.size() != tuples.size()) {
-                Tuple disabledTuple = new Tuple();
-                disabledTuple.addElement(elementValue);
-                disabledColumnTuples.add(disabledTuple);
-            } else {
-                Tuple disabledTuple = disabledColumnTuples.get(iTuple);
-                disabledTuple.addElement(elementValue);
-            }
-        }
-    }
+	// Remove a column from the enabled columns. Its values stay in the column store and are
+	// only hidden from view, so this does not depend on the number of tuples.
+	private void hideColumn(Column disabledColumn) {
+		int disabledColumnIndex = columns.indexOf(disabledColumn);
+		disabledColumn.setEnabled(false);
+		if (disabledColumn == this.highlightedColumn) {
+			highlightedColumn = null;
+			fireHighlightedColumnChanged();
+		}
+		disabledColumns.add(disabledColumn);
+		columns.remove(disabledColumnIndex);
+		clearActiveQueryColumnSelection(disabledColumn);
+	}
 
-    public void addTupleElementsForDisabledColumn(Column column) {
-        int columnIndex = disabledColumns.indexOf(column);
-        if (columnIndex != -1) {
-            for (int iTuple = 0; iTuple < disabledColumnTuples.size(); iTuple++) {
-                Tuple disabledTuple = disabledColumnTuples.get(iTuple);
-                float elementValue = disabledTuple.getElement(columnIndex);
-                disabledTuple.removeElement(columnIndex);
-
-                if (disabledColumnTuples.size() != tuples.size()) {
-                    Tuple tuple = new Tuple();
-                    tuple.addElement(elementValue);
-                    tuples.add(tuple);
-                } else {
-                    Tuple tuple = tuples.get(iTuple);
-                    tuple.addElement(elementValue);
-                }
-            }
-        }
-    }
+	// make the column store show the enabled columns in the current column order
+	private void updateColumnOrder() {
+		int[] storedColumnIndices = new int[columns.size()];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			storedColumnIndices[icolumn] = columns.get(icolumn).getStoreIndex();
+		}
+		columnStore.setColumnOrder(storedColumnIndices);
+	}
 
 	public void disableColumns(ArrayList<Column> columns) {
 		for (Column column : columns) {
 			if (!disabledColumns.contains(column)) {
-                removeTupleElementsForColumn(column);
-				column.setEnabled(false);
-				if (column == this.highlightedColumn) {
-					highlightedColumn = null;
-                    fireHighlightedColumnChanged();
-				}
-				disabledColumns.add(column);
-                columns.remove(column);
-                clearActiveQueryColumnSelection(column);
+				hideColumn(column);
 			}
 		}
+		updateColumnOrder();
 
 		fireColumnsDisabled(columns);
 	}
 
 	public void enableColumn(Column column) {
-		// int colIndex = disabledColumns.indexOf(column);
-		// if (colIndex != -1) {
-		// for (int i = 0; i < disabledColumnTuples.size(); i++) {
-		// Tuple disabledTuple = disabledColumnTuples.get(i);
-		// float elementValue = disabledTuple.getElement(colIndex);
-		// disabledTuple.removeElement(colIndex);
-		//
-		// if (disabledColumnTuples.size() != tuples.size()) {
-		// Tuple tuple = new Tuple();
-		// tuple.addElement(elementValue);
-		// tuples.add(tuple);
-		// } else {
-		// Tuple tuple = tuples.get(i);
-		// tuple.addElement(elementValue);
-		// }
-		// }
-		//
-		// column.setEnabled(true);
-		// disabledColumns.remove(column);
-		// columns.add(column);
-		// fireDataModelChanged();
-		// }
 		if (disabledColumns.contains(column)) {
-            // move elements from disable column tuples to active tuples list
-            addTupleElementsForDisabledColumn(column);
 			disabledColumns.remove(column);
 			column.setEnabled(true);
             columns.add(column);
-            calculateStatistics();
-            calculateQueryStatistics();
+            updateColumnOrder();
+
+            // only the enabled column needs new statistics and correlations, calculated when read
+            column.getSummaryStats().invalidate(SummaryStats.ALL, new StatisticsCalculator(column, null));
+            pendingCorrelations.set(column.getStoreIndex());
+            for (Column enabledColumn : columns) {
+                enabledColumn.getSummaryStats().invalidate(SummaryStats.CORRELATIONS,
+                        new StatisticsCalculator(enabledColumn, null));
+            }
+            if (activeQuery.hasColumnSelections()) {
+                SummaryStats querySummaryStats = new SummaryStats();
+                activeQuery.setColumnQuerySummaryStats(column, querySummaryStats);
+                querySummaryStats.invalidate(SummaryStats.ALL, new StatisticsCalculator(column, activeQuery));
+                pendingQueryCorrelations.set(column.getStoreIndex());
+                for (Column enabledColumn : columns) {
+                    activeQuery.getColumnQuerySummaryStats(enabledColumn).invalidate(SummaryStats.CORRELATIONS,
+                            new StatisticsCalculator(enabledColumn, activeQuery));
+                }
+            }
 			// fireDataModelChanged();
 			fireColumnEnabled(column);
 		}
@@ -793,19 +1818,20 @@ public class DataModel {
 //		fireQueryChanged();
 	}
 
-    public int removeUnselectedTuples() {
+    public synchronized int removeUnselectedTuples() {
         int tuplesRemoved = 0;
 
         if (activeQuery.hasColumnSelections()) {
-            tuplesRemoved = tuples.size() - activeQuery.getTuples().size();
-            log.debug("clearing old tuples list");
-            tuples.clear();
-            log.debug("adding selected tuples to list");
-            tuples.addAll(activeQuery.getTuples());
+            tuplesRemoved = columnStore.getLiveRowCount() - activeQuery.getTupleCount();
+            log.debug("marking unselected tuples as deleted in column store");
+            BitSet unselectedRows = getQueriedRows();
+            unselectedRows.flip(0, columnStore.getRowCount());
+            unselectedRows.andNot(columnStore.getDeletedRows());
+            deleteRows(unselectedRows);
             log.debug("Reseting column selections");
             activeQuery.clearAllColumnSelections();
-            log.debug("Recalculating statistics");
-            calculateStatistics();
+            log.debug("Invalidating statistics");
+            invalidateStatistics(SummaryStats.ALL);
             log.debug("Notifing listeners of changed data model");
             fireDataModelChanged();
         }
@@ -836,14 +1862,14 @@ public class DataModel {
 //        return tuplesRemoved.size();
     }
 
-	public int removeSelectedTuples() {
+	public synchronized int removeSelectedTuples() {
         int tuplesRemoved = 0;
 
 		if (activeQuery.hasColumnSelections()) {
-            tuplesRemoved = activeQuery.getTuples().size();
-            tuples.removeAll(activeQuery.getTuples());
+            tuplesRemoved = activeQuery.getTupleCount();
+            deleteRows(getQueriedRows());
             activeQuery.clearAllColumnSelections();
-            calculateStatistics();
+            invalidateStatistics(SummaryStats.ALL);
             fireDataModelChanged();
         }
 
@@ -866,6 +1892,255 @@ public class DataModel {
 //		return tuplesRemoved.size();
 	}
 
+	// Restore the tuples deleted by the most recent removeSelectedTuples or removeUnselectedTuples
+	// call, unless they have been compacted away. Returns the number of tuples restored.
+	public synchronized int undoTupleRemoval() {
+		if (tupleRemovalHistory.isEmpty()) {
+			return 0;
+		}
+
+		BitSet removedRows = tupleRemovalHistory.remove(tupleRemovalHistory.size() - 1);
+		columnStore.undeleteRows(removedRows);
+		activeQuery.clearAllColumnSelections();
+		invalidateStatistics(SummaryStats.ALL);
+		fireDataModelChanged();
+		return removedRows.cardinality();
+	}
+
+	public boolean canUndoTupleRemoval() {
+		return !tupleRemovalHistory.isEmpty();
+	}
+
+	// Physically drop the values of deleted tuples on a background thread. Query rows are moved
+	// to the compacted rows, tuple views taken before are invalidated and the removals can no
+	// longer be undone.
+	// The compaction is abandoned if the tuples change before it completes; the returned
+	// future yields whether it was applied. Listeners are not notified, so a caller that gets
+	// true from the future should refresh its tuple views.
+	public Future<Boolean> compactTuples() {
+		return compactTuples(null);
+	}
+
+	// Compact the tuples as compactTuples() does, and notify the listeners that the data model
+	// changed through listenerExecutor once the compaction is applied, for example on the UI
+	// thread. The listeners may be notified after the future completes.
+	public synchronized Future<Boolean> compactTuples(final Executor listenerExecutor) {
+		final ColumnStore store = columnStore;
+		final ColumnStore.Compaction compaction = store.startCompaction();
+
+		if (compactionExecutor == null) {
+			compactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "DataModel compaction");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		return compactionExecutor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				if (compaction == null) {
+					return false;
+				}
+				compaction.copyRows();
+				synchronized (DataModel.this) {
+					if (store != columnStore || !store.applyCompaction(compaction)) {
+						return false;
+					}
+					activeQuery.compactRows(compaction);
+					for (Query query : savedQueryList) {
+						query.compactRows(compaction);
+					}
+					tupleRemovalHistory.clear();
+				}
+				if (listenerExecutor != null) {
+					listenerExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							fireDataModelChanged();
+						}
+					});
+				}
+				return true;
+			}
+		});
+	}
+
+	private void deleteRows(BitSet rows) {
+		columnStore.deleteRows(rows);
+		tupleRemovalHistory.add(rows);
+	}
+
+	// Update the query statistics calculated for the previous query rows with the rows that
+	// entered and left the query since: their moments and co-moments are merged in or taken out
+	// and their histogram counts added or removed, so the cost follows the number of changed
+	// rows. The quartiles and whiskers are left to be recalculated when read, as are correlations
+	// that were not calculated for the previous rows. Returns false, leaving the query without
+	// statistics, if the previous moments and histograms were not calculated, the change touches
+	// a value that is not finite or is so large that a full calculation is cheaper.
+	private boolean updateQueryStatistics(BitSet previousRows, int previousCount, SummaryStats[] previousStats,
+										  CorrelationMatrix previousCorrelationMatrix) {
+		int queryCount = activeQuery.getTupleCount();
+		if (previousCount < 2 || queryCount < 2) {
+			return false;
+		}
+		boolean updateCorrelations = previousCorrelationMatrix != null && previousCorrelationMatrix.hasCoMoments() &&
+				previousCorrelationMatrix.size() >= columnStore.getStoredColumnCount() &&
+				pendingQueryCorrelations.isEmpty();
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			SummaryStats summaryStats = previousStats[icolumn];
+			if (summaryStats == null || summaryStats.isDirty(SummaryStats.MOMENTS | SummaryStats.HISTOGRAM)) {
+				return false;
+			}
+			updateCorrelations &= !summaryStats.isDirty(SummaryStats.CORRELATIONS);
+			Histogram fullHistogram = columns.get(icolumn).getSummaryStats().getHistogram();
+			if (summaryStats.getMoments() == null || summaryStats.getHistogram() == null ||
+					fullHistogram == null ||
+					summaryStats.getHistogram().numberOfBins() != fullHistogram.numberOfBins() ||
+					summaryStats.getHistogram().min() != fullHistogram.min() ||
+					summaryStats.getHistogram().max() != fullHistogram.max()) {
+				return false;
+			}
+		}
+
+		BitSet queriedRows = getQueriedRows();
+		BitSet enteredRows = (BitSet) queriedRows.clone();
+		enteredRows.andNot(previousRows);
+		BitSet leftRows = previousRows;
+		leftRows.andNot(queriedRows);
+		int enteredCount = enteredRows.cardinality();
+		int leftCount = leftRows.cardinality();
+		if (enteredCount + leftCount >= queryCount) {
+			return false;
+		}
+
+		float[][] enteredValues = getRowValues(enteredRows, enteredCount);
+		float[][] leftValues = getRowValues(leftRows, leftCount);
+		if (enteredValues == null || leftValues == null) {
+			return false;
+		}
+
+		int[] columnIds = getColumnStoreIndices();
+		double[] means = new double[columns.size()];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			means[icolumn] = previousStats[icolumn].getMoments().getMean();
+		}
+		if (updateCorrelations) {
+			previousCorrelationMatrix.addRows(columnIds, enteredValues, enteredCount, means);
+		}
+
+		boolean[] constant = new boolean[columns.size()];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			Column column = columns.get(icolumn);
+			SummaryStats summaryStats = previousStats[icolumn];
+			ColumnMoments moments = summaryStats.getMoments();
+			Histogram histogram = summaryStats.getHistogram();
+
+			ColumnMoments enteredMoments = new ColumnMoments();
+			for (float value : enteredValues[icolumn]) {
+				enteredMoments.add(value);
+				histogram.fill(value);
+			}
+			moments.merge(enteredMoments);
+			means[icolumn] = moments.getMean();
+
+			ColumnMoments leftMoments = new ColumnMoments();
+			boolean rangeLeft = false;
+			for (float value : leftValues[icolumn]) {
+				leftMoments.add(value);
+				histogram.remove(value);
+				rangeLeft |= value <= moments.getMin() || value >= moments.getMax();
+			}
+			moments.remove(leftMoments);
+
+			if (rangeLeft) {
+				// an extreme value left, so find the range of the remaining values
+				FloatColumnView view = getColumnQueriedView(icolumn);
+				double min = Double.NaN;
+				double max = Double.NaN;
+				for (int i = 0; i < view.size(); i++) {
+					float value = view.get(i);
+					if (!Float.isNaN(value)) {
+						if (Double.isNaN(min) || value < min) {
+							min = value;
+						}
+						if (Double.isNaN(max) || value > max) {
+							max = value;
+						}
+					}
+				}
+				moments.setRange(min, max);
+			}
+			constant[icolumn] = moments.getMin() == moments.getMax();
+
+			setMomentStatistics(summaryStats, moments);
+			summaryStats.invalidate(SummaryStats.QUANTILES, new StatisticsCalculator(column, activeQuery));
+
+			activeQuery.setColumnQuerySummaryStats(column, summaryStats);
+		}
+
+		if (updateCorrelations) {
+			previousCorrelationMatrix.removeRows(columnIds, leftValues, leftCount, means);
+			previousCorrelationMatrix.setConstantColumns(columnIds, constant);
+			activeQuery.setCorrelationMatrix(previousCorrelationMatrix);
+		} else {
+			invalidateQueryStatistics(SummaryStats.CORRELATIONS);
+		}
+		return true;
+	}
+
+	// values of the enabled columns in the given rows, or null if one of them is not finite
+	private float[][] getRowValues(BitSet rows, int rowCount) {
+		float[][] values = new float[columns.size()][rowCount];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			ColumnBuffer columnBuffer = columnStore.getColumnBuffer(icolumn);
+			for (int row = rows.nextSetBit(0), i = 0; row >= 0; row = rows.nextSetBit(row + 1), i++) {
+				float value = columnBuffer.get(row);
+				if (Float.isNaN(value) || Float.isInfinite(value)) {
+					return null;
+				}
+				values[icolumn][i] = value;
+			}
+		}
+		return values;
+	}
+
+	// recalculate the quartiles and whiskers of the values in view, leaving the other statistics
+	private void calculateQuantiles(FloatColumnView view, SummaryStats summaryStats, float[] valueBuffer) {
+		summaryStats.setUpperWhisker(0.f);
+		summaryStats.setLowerWhisker(0.f);
+		if (approximateStatistics) {
+			QuantileSketch sketch = new QuantileSketch(quantileRankError);
+			for (int i = 0; i < view.size(); i++) {
+				sketch.update(view.get(i));
+			}
+			summaryStats.setQuantileSketch(sketch);
+			setSketchQuantiles(summaryStats, sketch);
+		} else {
+			int n = view.get(0, valueBuffer, 0, view.size());
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				if (!Float.isNaN(valueBuffer[i])) {
+					valueBuffer[count++] = valueBuffer[i];
+				}
+			}
+			summaryStats.setQuantileSketch(null);
+			setExactQuantiles(summaryStats, valueBuffer, count);
+		}
+	}
+
+	private BitSet getQueriedRows() {
+		BitSet queriedRows = new BitSet(columnStore.getRowCount());
+		int[] rows = activeQuery.getRows();
+		for (int i = 0; i < activeQuery.getTupleCount(); i++) {
+			queriedRows.set(rows[i]);
+		}
+		return queriedRows;
+	}
+
 	public void saveActiveQuery() {
 		savedQueryList.add(activeQuery);
 		activeQuery = new Query("Q"+(nextQueryNumber++));
@@ -1036,59 +2311,31 @@ public class DataModel {
 //        }
 //        log.debug("before order change:\n" + stringBuffer.toString());
 
-        // determine destination indices for new column order
-        int dstColumnIndices[] = new int[newColumnOrder.size()];
-        for (int i = 0; i < newColumnOrder.size(); i++) {
-            // find index of column in new column order
-            Column column = newColumnOrder.get(i);
-            dstColumnIndices[i] = columns.indexOf(column);
+        if (newColumnOrder.size() != columns.size()) {
+            throw new IllegalArgumentException("New column order has " + newColumnOrder.size() +
+                    " columns but the data model has " + columns.size() + " enabled columns");
         }
 
-        // reset columns array
-        columns = newColumnOrder;
-
-        // rearrange column correlation coefficients
-        for (int iColumn = 0; iColumn < columns.size(); iColumn++) {
-            Column column = columns.get(iColumn);
-            ArrayList<Float> corrCoef = column.getSummaryStats().getCorrelationCoefficients();
-            ArrayList<Float> newCorrCoef = new ArrayList<Float>();
-            for (int iCorrCoef = 0; iCorrCoef < corrCoef.size(); iCorrCoef++) {
-                newCorrCoef.add(corrCoef.get(dstColumnIndices[iCorrCoef]));
-            }
-            column.getSummaryStats().setCorrelationCoefficients(newCorrCoef);
+        // check that the new order holds each enabled column once, using the current position of
+        // each stored column
+        int currentColumnIndices[] = new int[columnStore.getStoredColumnCount()];
+        Arrays.fill(currentColumnIndices, -1);
+        for (int i = 0; i < columns.size(); i++) {
+            currentColumnIndices[columns.get(i).getStoreIndex()] = i;
         }
-
-        // move tuple elements to reflect new column order
-//        ArrayList<Tuple> newTuples = new ArrayList<Tuple>();
-        for (int iTuple = 0; iTuple < tuples.size(); iTuple++) {
-            Tuple tuple = tuples.get(iTuple);
-            Float elements[] = tuple.getElementsAsArray();
-            tuple.removeAllElements();
-//            Tuple newTuple = new Tuple();
-
-            for (int iElement = 0; iElement < elements.length; iElement++) {
-                tuple.addElement(elements[dstColumnIndices[iElement]]);
-//                newTuple.addElement(tuple.getElement(dstColumnIndices[iElement]));
+        for (int i = 0; i < newColumnOrder.size(); i++) {
+            Column column = newColumnOrder.get(i);
+            int storeIndex = column.getStoreIndex();
+            if (storeIndex < 0 || storeIndex >= currentColumnIndices.length || currentColumnIndices[storeIndex] == -1) {
+                throw new IllegalArgumentException("Column '" + column.getName() + "' is not an enabled column");
             }
-//            newTuples.add(newTuple);
+            currentColumnIndices[storeIndex] = -1;
         }
 
-        // reset tuples array
-//        tuples = newTuples;
-
-        // move query statistics to reflect new column order
-        if (activeQuery.hasColumnSelections()) {
-            for (int iColumn = 0; iColumn < columns.size(); iColumn++) {
-                Column column = columns.get(iColumn);
-                SummaryStats summaryStats = activeQuery.getColumnQuerySummaryStats(column);
-                ArrayList<Float> corrCoef = summaryStats.getCorrelationCoefficients();
-                ArrayList<Float> newCorrCoef = new ArrayList<Float>();
-                for (int iCorrCoef = 0; iCorrCoef < corrCoef.size(); iCorrCoef++) {
-                    newCorrCoef.add(corrCoef.get(dstColumnIndices[iCorrCoef]));
-                }
-                summaryStats.setCorrelationCoefficients(newCorrCoef);
-            }
-        }
+        // reset columns array and the column store permutation; no tuple values move, and the
+        // correlation lists follow the column store order
+        columns = new ArrayList<Column>(newColumnOrder);
+        updateColumnOrder();
 
 //        stringBuffer = new StringBuffer();
 //        for (int i = 0; i < getHighlightedColumn().getSummaryStats().getCorrelationCoefficients().size(); i++) {
@@ -1155,7 +2402,7 @@ public class DataModel {
 	}
 
 	public int getQueriedTupleCount() {
-		return activeQuery.getTuples().size();
+		return activeQuery.getTupleCount();
 //		return queriedTuples.size();
 	}
 
@@ -1173,19 +2420,38 @@ public class DataModel {
 //		return false;
 //	}
 
-	public void setQueriedTuples() {
+	public synchronized void setQueriedTuples() {
 		log.debug("setting queried tuples");
+		// keep the previous query statistics to update them with the rows that entered or left
+		BitSet previousRows = getQueriedRows();
+		int previousCount = activeQuery.getTupleCount();
+		boolean previousColumnStore = activeQuery.getColumnStore() == columnStore;
+		SummaryStats[] previousStats = new SummaryStats[columns.size()];
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			previousStats[icolumn] = activeQuery.getColumnQuerySummaryStats(columns.get(icolumn));
+		}
+		CorrelationMatrix previousCorrelationMatrix = activeQuery.getCorrelationMatrix();
+
 //		queriedTuples.clear();
 		activeQuery.clearTuples();
+		activeQuery.setColumnStore(columnStore);
 
 		if (getTupleCount() == 0) {
 			return;
 		}
 
-		if (!activeQuery.getColumnSelections().isEmpty()) {
-			for (int ituple = 0; ituple < getTupleCount(); ituple++) {
-				Tuple currentTuple = getTuple(ituple);
-				currentTuple.setQueryFlag(true);
+		if (!activeQuery.getColumnSelections().isEmpty() && selectionIndexing) {
+			setQueriedRowsFromIndices();
+
+			if (!previousColumnStore || !updateQueryStatistics(previousRows, previousCount, previousStats,
+					previousCorrelationMatrix)) {
+				resetQueryStatistics();
+			}
+			fireQueryChanged();
+		} else if (!activeQuery.getColumnSelections().isEmpty()) {
+			for (int ilive = 0; ilive < getTupleCount(); ilive++) {
+				int ituple = columnStore.getLiveRow(ilive);
+				boolean queryFlag = true;
 
 				for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
 					Column column = columns.get(icolumn);
@@ -1194,9 +2460,10 @@ public class DataModel {
 //						int selectionRangeIntersections = 0;
 						boolean insideSelection = false;
 //
+						float value = columnStore.getValue(ituple, icolumn);
 						for (ColumnSelectionRange selectionRange : columnSelection.getColumnSelectionRanges()) {
-							if ((currentTuple.getElement(icolumn) <= selectionRange.getMaxValue()) &&
-									(currentTuple.getElement(icolumn) >= selectionRange.getMinValue())) {
+							if ((value <= selectionRange.getMaxValue()) &&
+									(value >= selectionRange.getMinValue())) {
 //								selectionRangeIntersections++;
 								insideSelection = true;
 								break;
@@ -1206,7 +2473,7 @@ public class DataModel {
 						}
 
 						if (!insideSelection) {
-							currentTuple.setQueryFlag(false);
+							queryFlag = false;
 							break;
 						}
 //
@@ -1224,18 +2491,20 @@ public class DataModel {
 					}
 				}
 
-				if (currentTuple.getQueryFlag()) {
+				columnStore.setQueryFlag(ituple, queryFlag);
+				if (queryFlag) {
 //					queriedTuples.add(currentTuple);
-					activeQuery.addTuple(currentTuple);
+					activeQuery.addRow(ituple);
 				}
 			}
 
-			calculateQueryStatistics();
+			if (!previousColumnStore || !updateQueryStatistics(previousRows, previousCount, previousStats,
+					previousCorrelationMatrix)) {
+				resetQueryStatistics();
+			}
 			fireQueryChanged();
 		} else {
-			for (Tuple tuple : tuples) {
-				tuple.setQueryFlag(true);
-			}
+			columnStore.setAllQueryFlags(true);
 		}
 //		if (querySet) {
 //			for (int ituple = 0; ituple < getTupleCount(); ituple++) {
@@ -1264,7 +2533,120 @@ public class DataModel {
 //		}
 
 		log.debug("Finished setting queried tuples");
-		log.debug("ActiveQuery has " + activeQuery.getTuples().size() + " tuples");
+		log.debug("ActiveQuery has " + activeQuery.getTupleCount() + " tuples");
 		log.debug("ActiveQuery has column Selections " + activeQuery.hasColumnSelections());
 	}
+
+	// Add the rows inside the active query's selections to it, found with the sorted indices of
+	// the selected columns. The rows in the selection ranges of the column with the fewest of
+	// them are the candidates, which are tested in ascending order against the selections of the
+	// other columns, so the work follows the most selective column rather than all tuples.
+	private void setQueriedRowsFromIndices() {
+		ArrayList<ColumnSelection> selections = new ArrayList<ColumnSelection>();
+		int[] candidateRuns = null;
+		int candidateCount = Integer.MAX_VALUE;
+		SortedColumnIndex candidateIndex = null;
+		for (Column column : columns) {
+			ColumnSelection columnSelection = activeQuery.getColumnSelection(column);
+			if (columnSelection == null || columnSelection.getColumnSelectionRanges().isEmpty()) {
+				continue;
+			}
+			selections.add(columnSelection);
+			SortedColumnIndex index = getSelectionIndex(column);
+			int[] runs = getSelectionRuns(index, columnSelection.getColumnSelectionRanges());
+			int count = 0;
+			for (int i = 0; i < runs.length; i += 2) {
+				count += runs[i + 1] - runs[i];
+			}
+			if (count < candidateCount) {
+				candidateRuns = runs;
+				candidateCount = count;
+				candidateIndex = index;
+			}
+		}
+
+		if (candidateRuns != null) {
+			int[] candidates = new int[candidateCount];
+			int count = 0;
+			for (int i = 0; i < candidateRuns.length; i += 2) {
+				for (int position = candidateRuns[i]; position < candidateRuns[i + 1]; position++) {
+					candidates[count++] = candidateIndex.getRow(position);
+				}
+			}
+			Arrays.sort(candidates);
+
+			ColumnBuffer[] columnBuffers = new ColumnBuffer[selections.size()];
+			for (int i = 0; i < columnBuffers.length; i++) {
+				columnBuffers[i] = columnStore.getStoredColumnBuffer(selections.get(i).getColumn().getStoreIndex());
+			}
+			boolean hasDeletedRows = columnStore.hasDeletedRows();
+			for (int row : candidates) {
+				if (hasDeletedRows && columnStore.isDeleted(row)) {
+					continue;
+				}
+				boolean queryFlag = true;
+				for (int i = 0; i < columnBuffers.length && queryFlag; i++) {
+					queryFlag = isInsideSelection(columnBuffers[i].get(row), selections.get(i));
+				}
+				if (queryFlag) {
+					activeQuery.addRow(row);
+				}
+			}
+		}
+		columnStore.setQueryFlags(activeQuery.getRows(), activeQuery.getTupleCount());
+	}
+
+	private static boolean isInsideSelection(float value, ColumnSelection columnSelection) {
+		for (ColumnSelectionRange selectionRange : columnSelection.getColumnSelectionRanges()) {
+			if ((value <= selectionRange.getMaxValue()) && (value >= selectionRange.getMinValue())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// sorted index of the rows of a column, built or brought up to date with appended rows
+	private SortedColumnIndex getSelectionIndex(Column column) {
+		SortedColumnIndex index = selectionIndices.get(column.getStoreIndex());
+		if (index == null || !index.isValid(columnStore, column.getStoreIndex())) {
+			index = new SortedColumnIndex(columnStore, column.getStoreIndex());
+			selectionIndices.put(column.getStoreIndex(), index);
+		} else {
+			index.update();
+		}
+		return index;
+	}
+
+	// Runs of index positions with values in the selection ranges, as ascending pairs of the
+	// first position and the position after the last. Runs of overlapping ranges are joined so
+	// no row is in two runs.
+	private static int[] getSelectionRuns(SortedColumnIndex index, ArrayList<ColumnSelectionRange> selectionRanges) {
+		long[] runs = new long[selectionRanges.size()];
+		int runCount = 0;
+		for (ColumnSelectionRange selectionRange : selectionRanges) {
+			if (Float.isNaN(selectionRange.getMinValue()) || Float.isNaN(selectionRange.getMaxValue())) {
+				continue;
+			}
+			int from = index.lowerBound(selectionRange.getMinValue());
+			int to = index.upperBound(selectionRange.getMaxValue());
+			if (from < to) {
+				runs[runCount++] = ((long)from << 32) | to;
+			}
+		}
+		Arrays.sort(runs, 0, runCount);
+
+		int[] joinedRuns = new int[2 * runCount];
+		int joinedCount = 0;
+		for (int i = 0; i < runCount; i++) {
+			int from = (int)(runs[i] >>> 32);
+			int to = (int)runs[i];
+			if (joinedCount > 0 && from <= joinedRuns[joinedCount - 1]) {
+				joinedRuns[joinedCount - 1] = Math.max(joinedRuns[joinedCount - 1], to);
+			} else {
+				joinedRuns[joinedCount++] = from;
+				joinedRuns[joinedCount++] = to;
+			}
+		}
+		return Arrays.copyOf(joinedRuns, joinedCount);
+	}
 }
@@ -0,0 +1,347 @@
+package gov.ornl.datatable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Binary snapshot of a DataModel holding its columns, their values and their
+ * computed statistics, so a data set can be reopened without parsing text or
+ * recomputing anything.
+ *
+ * The file starts with a magic string, a format version and the length of a
+ * header with the statistics settings and the columns: names, enabled and
+ * discrete flags, summary statistics with their moments and quantile sketches,
+ * histograms with their base bins and value counts, followed by the packed
+ * correlation matrix. The values follow from the first page boundary after the
+ * header, one column after another, as little-endian floats like MappedColumnBuffer files. Loading maps each column
+ * read-only in place, so only the header is actually read; a chunk of a column
+ * is copied to the heap when a value in it is first set, and the file is never
+ * changed.
+ */
+public class DataModelSnapshot {
+    private static final byte[] MAGIC = {'D', 'T', 'S', 'N', 'A', 'P', '\r', '\n'};
+    private static final int VERSION = 7;
+    private static final int DATA_ALIGNMENT = 4096;
+    private static final int WRITE_BUFFER_VALUES = 1 << 16;
+
+    // write the tuples that are not deleted, with all enabled and disabled columns
+    public static void write(DataModel dataModel, File file) throws IOException {
+        ColumnStore columnStore = dataModel.getColumnStore();
+        ArrayList<Column> columns = new ArrayList<Column>(dataModel.getColumns());
+        columns.addAll(dataModel.getDisabledColumns());
+        int rowCount = columnStore.getLiveRowCount();
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(rowCount);
+        header.writeInt(columns.size());
+        header.writeInt(dataModel.getHistogramBinSize());
+        header.writeBoolean(dataModel.isApproximateStatistics());
+        header.writeDouble(dataModel.getQuantileRankError());
+        for (Column column : columns) {
+            header.writeUTF(column.getName());
+            header.writeBoolean(column.isEnabled());
+            header.writeBoolean(column.isDiscrete());
+            writeSummaryStats(header, column.getSummaryStats());
+        }
+        writeCorrelationMatrix(header, dataModel.getCorrelationMatrix(), columns);
+        header.close();
+
+        long dataOffset = alignedDataOffset(headerBytes.size());
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            randomAccessFile.write(MAGIC);
+            randomAccessFile.writeInt(VERSION);
+            randomAccessFile.writeInt(headerBytes.size());
+            randomAccessFile.write(headerBytes.toByteArray());
+
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.position(dataOffset);
+            float[] values = new float[WRITE_BUFFER_VALUES];
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_VALUES * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (Column column : columns) {
+                FloatColumnView view = getLiveRowView(columnStore, column.getStoreIndex());
+                for (int row = 0; row < rowCount; row += WRITE_BUFFER_VALUES) {
+                    int count = view.get(row, values, 0, Math.min(WRITE_BUFFER_VALUES, rowCount - row));
+                    byteBuffer.clear();
+                    byteBuffer.asFloatBuffer().put(values, 0, count);
+                    byteBuffer.limit(count * 4);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                }
+            }
+            // cover the data region even when there are no values to write
+            randomAccessFile.setLength(dataOffset + (long)columns.size() * rowCount * 4);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // replace the data of dataModel with a snapshot, mapping the column values from the file
+    public static void read(File file, DataModel dataModel) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        int rowCount;
+        int histogramBinSize;
+        boolean approximateStatistics;
+        double quantileRankError;
+        CorrelationMatrix correlationMatrix;
+        ArrayList<Column> columns = new ArrayList<Column>();
+        ArrayList<Column> disabledColumns = new ArrayList<Column>();
+        ArrayList<ColumnBuffer> columnBuffers = new ArrayList<ColumnBuffer>();
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException(file + " is not a data model snapshot");
+                }
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            }
+            long dataOffset = alignedDataOffset(input.readInt());
+
+            rowCount = input.readInt();
+            int columnCount = input.readInt();
+            histogramBinSize = input.readInt();
+            approximateStatistics = input.readBoolean();
+            quantileRankError = input.readDouble();
+            for (int icolumn = 0; icolumn < columnCount; icolumn++) {
+                Column column = new Column(input.readUTF());
+                column.setEnabled(input.readBoolean());
+                if (input.readBoolean()) {
+                    column.makeDiscrete();
+                }
+                column.setSummaryStats(readSummaryStats(input));
+                column.setStoreIndex(icolumn);
+                if (column.isEnabled()) {
+                    columns.add(column);
+                } else {
+                    disabledColumns.add(column);
+                }
+                columnBuffers.add(new MappedColumnBuffer(file, dataOffset + (long)icolumn * rowCount * 4, rowCount));
+            }
+            correlationMatrix = readCorrelationMatrix(input, columns, disabledColumns);
+        } finally {
+            input.close();
+        }
+
+        ColumnStore columnStore = new ColumnStore(columnBuffers);
+        dataModel.setSnapshotData(columnStore, columns, disabledColumns, histogramBinSize, approximateStatistics,
+                quantileRankError, correlationMatrix);
+    }
+
+    private static FloatColumnView getLiveRowView(ColumnStore columnStore, int storedColumn) {
+        ColumnBuffer columnBuffer = columnStore.getStoredColumnBuffer(storedColumn);
+        if (columnStore.hasDeletedRows()) {
+            return new RowSubsetColumnView(columnBuffer, columnStore.getLiveRows(), columnStore.getLiveRowCount());
+        }
+        return columnBuffer;
+    }
+
+    // the values start at the first page boundary after the magic string, version, length and header
+    private static long alignedDataOffset(int headerLength) {
+        long headerEnd = MAGIC.length + 8L + headerLength;
+        return (headerEnd + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+    }
+
+    private static void writeSummaryStats(DataOutputStream output, SummaryStats summaryStats) throws IOException {
+        output.writeFloat(summaryStats.getMin());
+        output.writeFloat(summaryStats.getMax());
+        output.writeFloat(summaryStats.getMean());
+        output.writeFloat(summaryStats.getMedian());
+        output.writeFloat(summaryStats.getVariance());
+        output.writeFloat(summaryStats.getStandardDeviation());
+        output.writeFloat(summaryStats.getQuantile1());
+        output.writeFloat(summaryStats.getQuantile3());
+        output.writeFloat(summaryStats.getSkewness());
+        output.writeFloat(summaryStats.getKurtosis());
+        output.writeFloat(summaryStats.getUpperWhisker());
+        output.writeFloat(summaryStats.getLowerWhisker());
+        output.writeInt(summaryStats.getNumNaN());
+
+        // the moments let tuples added after loading be merged into the statistics
+        ColumnMoments moments = summaryStats.getMoments();
+        output.writeBoolean(moments != null);
+        if (moments != null) {
+            output.writeLong(moments.getCount());
+            output.writeLong(moments.getNaNCount());
+            output.writeDouble(moments.getRawMean());
+            output.writeDouble(moments.getM2());
+            output.writeDouble(moments.getM3());
+            output.writeDouble(moments.getM4());
+            output.writeDouble(moments.getMin());
+            output.writeDouble(moments.getMax());
+        }
+
+        // and the sketch lets them be merged into approximate quantiles
+        QuantileSketch sketch = summaryStats.getQuantileSketch();
+        output.writeBoolean(sketch != null);
+        if (sketch != null) {
+            output.writeInt(sketch.getK());
+            output.writeLong(sketch.getCount());
+            output.writeFloat(sketch.getMin());
+            output.writeFloat(sketch.getMax());
+            output.writeLong(sketch.getRandomState());
+            output.writeInt(sketch.getLevelCount());
+            for (int h = 0; h < sketch.getLevelCount(); h++) {
+                float[] items = sketch.getLevel(h);
+                output.writeInt(items.length);
+                for (float item : items) {
+                    output.writeFloat(item);
+                }
+            }
+        }
+
+        Histogram histogram = summaryStats.getHistogram();
+        output.writeBoolean(histogram != null);
+        if (histogram != null) {
+            output.writeUTF(histogram.name());
+            output.writeDouble(histogram.min());
+            output.writeDouble(histogram.max());
+            output.writeInt(histogram.entries());
+            output.writeDouble(histogram.underflow());
+            output.writeDouble(histogram.overflow());
+            double[] bins = histogram.getArray();
+            output.writeInt(bins.length);
+            for (double bin : bins) {
+                output.writeDouble(bin);
+            }
+            int[] baseBins = histogram.getBaseCounts();
+            output.writeInt(baseBins == null ? 0 : baseBins.length);
+            if (baseBins != null) {
+                for (int bin : baseBins) {
+                    output.writeInt(bin);
+                }
+            }
+            FrequencyTable frequencyTable = histogram.getFrequencyTable();
+            output.writeInt(frequencyTable == null ? -1 : frequencyTable.getDistinctCount());
+            if (frequencyTable != null) {
+                for (float value : frequencyTable.getValues()) {
+                    output.writeFloat(value);
+                    output.writeInt(frequencyTable.getCount(value));
+                }
+            }
+        }
+    }
+
+    // Write the coefficients between the columns in the order they are written, which are
+    // numbered by their stored index when the snapshot is read.
+    private static void writeCorrelationMatrix(DataOutputStream output, CorrelationMatrix correlationMatrix,
+                                               ArrayList<Column> columns) throws IOException {
+        output.writeInt(columns.size());
+        for (int ix = 0; ix < columns.size(); ix++) {
+            for (int iy = ix; iy < columns.size(); iy++) {
+                output.writeFloat(correlationMatrix == null ? Float.NaN :
+                        correlationMatrix.get(columns.get(ix).getStoreIndex(), columns.get(iy).getStoreIndex()));
+            }
+        }
+    }
+
+    private static CorrelationMatrix readCorrelationMatrix(DataInputStream input, ArrayList<Column> columns,
+                                                           ArrayList<Column> disabledColumns) throws IOException {
+        int size = input.readInt();
+        if (size != columns.size() + disabledColumns.size()) {
+            throw new IOException("Correlation matrix has " + size + " columns instead of " +
+                    (columns.size() + disabledColumns.size()));
+        }
+        float[] coefficients = new float[size * (size + 1) / 2];
+        for (int i = 0; i < coefficients.length; i++) {
+            coefficients[i] = input.readFloat();
+        }
+        return new CorrelationMatrix(size, coefficients);
+    }
+
+    private static SummaryStats readSummaryStats(DataInputStream input) throws IOException {
+        SummaryStats summaryStats = new SummaryStats();
+        summaryStats.setMin(input.readFloat());
+        summaryStats.setMax(input.readFloat());
+        summaryStats.setMean(input.readFloat());
+        summaryStats.setMedian(input.readFloat());
+        summaryStats.setVariance(input.readFloat());
+        summaryStats.setStandardDeviation(input.readFloat());
+        summaryStats.setQuantile1(input.readFloat());
+        summaryStats.setQuantile3(input.readFloat());
+        summaryStats.setSkewness(input.readFloat());
+        summaryStats.setKurtosis(input.readFloat());
+        summaryStats.setUpperWhisker(input.readFloat());
+        summaryStats.setLowerWhisker(input.readFloat());
+        summaryStats.setNumNaN(input.readInt());
+
+        if (input.readBoolean()) {
+            long n = input.readLong();
+            long nanCount = input.readLong();
+            double mean = input.readDouble();
+            double m2 = input.readDouble();
+            double m3 = input.readDouble();
+            double m4 = input.readDouble();
+            double min = input.readDouble();
+            double max = input.readDouble();
+            summaryStats.setMoments(ColumnMoments.fromSums(n, nanCount, mean, m2, m3, m4, min, max));
+        }
+
+        if (input.readBoolean()) {
+            int k = input.readInt();
+            long n = input.readLong();
+            float min = input.readFloat();
+            float max = input.readFloat();
+            long randomState = input.readLong();
+            float[][] levels = new float[input.readInt()][];
+            for (int h = 0; h < levels.length; h++) {
+                levels[h] = new float[input.readInt()];
+                for (int i = 0; i < levels[h].length; i++) {
+                    levels[h][i] = input.readFloat();
+                }
+            }
+            try {
+                summaryStats.setQuantileSketch(QuantileSketch.fromLevels(k, levels, n, min, max, randomState));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid quantile sketch: " + e.getMessage());
+            }
+        }
+
+        if (input.readBoolean()) {
+            String name = input.readUTF();
+            double min = input.readDouble();
+            double max = input.readDouble();
+            int entries = input.readInt();
+            double underflow = input.readDouble();
+            double overflow = input.readDouble();
+            double[] bins = new double[input.readInt()];
+            for (int i = 0; i < bins.length; i++) {
+                bins[i] = input.readDouble();
+            }
+            int[] baseBins = null;
+            int baseBinCount = input.readInt();
+            if (baseBinCount > 0) {
+                baseBins = new int[baseBinCount];
+                for (int i = 0; i < baseBinCount; i++) {
+                    baseBins[i] = input.readInt();
+                }
+            }
+            Histogram histogram = new Histogram(name, min, max, bins, entries, underflow, overflow, baseBins);
+            int distinctCount = input.readInt();
+            if (distinctCount >= 0) {
+                histogram.countDistinctValues();
+                for (int i = 0; i < distinctCount; i++) {
+                    histogram.getFrequencyTable().add(input.readFloat(), input.readInt());
+                }
+            }
+            summaryStats.setHistogram(histogram);
+        }
+        return summaryStats;
+    }
+}
@@ -0,0 +1,16 @@
+package gov.ornl.datatable;
+
+/**
+ * Read-only access to the values of one column, either all of its rows or a
+ * subset such as the tuples selected by a query. Views read the column
+ * storage directly; nothing is copied when a view is created.
+ */
+public interface FloatColumnView {
+    // number of values in the view
+    public int size();
+
+    public float get(int index);
+
+    // copy up to length values starting at index into dst and return the number copied
+    public int get(int index, float[] dst, int offset, int length);
+}
@@ -0,0 +1,184 @@
+package gov.ornl.datatable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Number of times each distinct value occurs in a discrete column, kept in an
+ * open addressing hash table so memory follows the number of distinct values
+ * rather than their range. Values can be removed again, as when tuples leave a
+ * query, and tables filled from separate parts of a column can be merged.
+ *
+ * NaN values are not counted, and -0 is counted as 0.
+ */
+public class FrequencyTable {
+    private static final int MIN_CAPACITY = 16;
+
+    // value bits and counts of the occupied slots; a slot whose count drops to zero stays
+    // occupied until the table is resized, so probe sequences are not broken
+    private int[] keys = new int[MIN_CAPACITY];
+    private int[] counts = new int[MIN_CAPACITY];
+    private boolean[] occupied = new boolean[MIN_CAPACITY];
+    private int occupiedCount = 0;
+    private int distinctCount = 0;
+    private long totalCount = 0;
+
+    public void add(float value) {
+        add(value, 1);
+    }
+
+    public void remove(float value) {
+        add(value, -1);
+    }
+
+    // add count occurrences of value, or remove them if count is negative
+    public void add(float value, int count) {
+        if (Float.isNaN(value) || count == 0) {
+            return;
+        }
+        int slot = findSlot(key(value));
+        if (!occupied[slot]) {
+            if (count < 0) {
+                throw new IllegalArgumentException(value + " is not in the frequency table");
+            }
+            if ((occupiedCount + 1) * 4 > keys.length * 3) {
+                resize();
+                slot = findSlot(key(value));
+            }
+            occupied[slot] = true;
+            keys[slot] = key(value);
+            occupiedCount++;
+        }
+        if (counts[slot] + count < 0) {
+            throw new IllegalArgumentException(value + " occurs fewer than " + -count + " times");
+        }
+        if (counts[slot] == 0) {
+            distinctCount++;
+        }
+        counts[slot] += count;
+        if (counts[slot] == 0) {
+            distinctCount--;
+        }
+        totalCount += count;
+    }
+
+    // add the counts of another table to this one
+    public void merge(FrequencyTable other) {
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            if (other.occupied[slot] && other.counts[slot] > 0) {
+                add(Float.intBitsToFloat(other.keys[slot]), other.counts[slot]);
+            }
+        }
+    }
+
+    public int getCount(float value) {
+        if (Float.isNaN(value)) {
+            return 0;
+        }
+        int slot = findSlot(key(value));
+        return occupied[slot] ? counts[slot] : 0;
+    }
+
+    public int getDistinctCount() {
+        return distinctCount;
+    }
+
+    // number of values counted, which leaves out NaN values
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    // the distinct values in ascending order
+    public float[] getValues() {
+        float[] values = new float[distinctCount];
+        int count = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (occupied[slot] && counts[slot] > 0) {
+                values[count++] = Float.intBitsToFloat(keys[slot]);
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    // The k most frequent values, most frequent first; values that occur equally often are
+    // ordered by value. Found with a bounded heap in O(distinct values * log k) time.
+    public float[] getTopValues(int k) {
+        k = Math.min(k, distinctCount);
+        if (k <= 0) {
+            return new float[0];
+        }
+        // the heap head is the least frequent of the k slots kept so far
+        final Comparator<Integer> leastFrequentFirst = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer slot1, Integer slot2) {
+                int compare = Integer.compare(counts[slot1], counts[slot2]);
+                if (compare != 0) {
+                    return compare;
+                }
+                return Float.compare(Float.intBitsToFloat(keys[slot2]), Float.intBitsToFloat(keys[slot1]));
+            }
+        };
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(k, leastFrequentFirst);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (!occupied[slot] || counts[slot] == 0) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.add(slot);
+            } else if (leastFrequentFirst.compare(slot, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(slot);
+            }
+        }
+        float[] values = new float[heap.size()];
+        for (int i = values.length - 1; i >= 0; i--) {
+            values[i] = Float.intBitsToFloat(keys[heap.poll()]);
+        }
+        return values;
+    }
+
+    private static int key(float value) {
+        return Float.floatToIntBits(value == 0.f ? 0.f : value);
+    }
+
+    // slot holding key, or the empty slot where it would go
+    private int findSlot(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (occupied[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // rehash the values that still occur into a table with room for twice as many
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        boolean[] oldOccupied = occupied;
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < distinctCount * 8) {
+            capacity *= 2;
+        }
+        keys = new int[capacity];
+        counts = new int[capacity];
+        occupied = new boolean[capacity];
+        occupiedCount = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldOccupied[slot] && oldCounts[slot] > 0) {
+                int newSlot = findSlot(oldKeys[slot]);
+                occupied[newSlot] = true;
+                keys[newSlot] = oldKeys[slot];
+                counts[newSlot] = oldCounts[slot];
+                occupiedCount++;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package gov.ornl.datatable;
+
+import java.util.Arrays;
+
+/**
+ * Column buffer backed by a primitive float array on the Java heap.
+ */
+public class HeapColumnBuffer extends ColumnBuffer {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private float[] values;
+
+    public HeapColumnBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HeapColumnBuffer(int initialCapacity) {
+        values = new float[Math.max(initialCapacity, 1)];
+    }
+
+    // wrap the first size values of an array without copying them
+    public HeapColumnBuffer(float[] values, int size) {
+        this.values = values.length == 0 ? new float[1] : values;
+        this.size = size;
+    }
+
+    @Override
+    public float get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int get(int index, float[] dst, int offset, int length) {
+        int count = Math.min(length, size - index);
+        System.arraycopy(values, index, dst, offset, count);
+        return count;
+    }
+
+    @Override
+    public void set(int index, float value) {
+        values[index] = value;
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        if (minCapacity > values.length) {
+            int newCapacity = Math.max(values.length + (values.length >> 1), minCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+}
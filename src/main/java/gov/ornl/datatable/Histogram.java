@@ -15,16 +15,28 @@ import java.text.DecimalFormat;
  * @version 1.0 31 Aug 2001
  */
 public class Histogram {
+	// bin index results for values outside the bins
+	private static final int UNDERFLOW = -1;
+	private static final int OVERFLOW = -2;
+	private static final int NO_BIN = -3;
+
 	// private data used internally by this class.
-	private double[] m_hist;
+	private int[] m_hist;
 	private String m_name;
 	private double m_min;
 	private double m_max;
+	private double m_binWidth;
 	private int m_nbins;
 	private int m_entries;
-	private double m_overflow;
-	private double m_underflow;
+	private int m_overflow;
+	private int m_underflow;
 	private boolean m_debug;
+	// optional counts of the range in finer bins, from which coarser histograms
+	// are derived by rebin
+	private int[] m_base;
+	private double m_baseWidth;
+	// optional counts of each distinct value filled in, for discrete values
+	private FrequencyTable m_frequencies;
 	
 	/**
 	 * Constructor which sets name, number of bins, and range.
@@ -45,11 +57,57 @@ public class Histogram {
 		m_min = min;
 		m_max = max;
 		m_name = name;
-		m_hist = new double[m_nbins];
+		m_hist = new int[m_nbins];
+		m_binWidth = (m_max - m_min) / m_nbins;
 		m_underflow = 0;
 		m_overflow = 0;
 	}
 
+	/**
+	 * Constructor which also keeps the counts of the range in a number of
+	 * finer base bins, so histograms with other numbers of bins or narrower
+	 * ranges can be derived by rebin without filling them again.
+	 * 
+	 * @param baseBins
+	 *            the number of base bins, or 0 to keep none
+	 */
+	public Histogram(String name, int nbins, double min, double max, int baseBins) {
+		this(name, nbins, min, max);
+		if (baseBins > 0) {
+			m_base = new int[baseBins];
+			m_baseWidth = (m_max - m_min) / baseBins;
+		}
+	}
+
+	/**
+	 * Constructor which restores a histogram from saved contents, as read back
+	 * from a DataModelSnapshot.
+	 * 
+	 * @param bins
+	 *            the bin heights, whose length gives the number of bins
+	 * @param entries
+	 *            the number of values that were filled in
+	 */
+	Histogram(String name, double min, double max, double[] bins, int entries,
+			double underflow, double overflow, int[] baseBins) {
+		m_nbins = bins.length;
+		m_min = min;
+		m_max = max;
+		m_name = name;
+		m_hist = new int[m_nbins];
+		for (int i = 0; i < m_nbins; i++) {
+			m_hist[i] = (int) bins[i];
+		}
+		m_binWidth = (m_max - m_min) / m_nbins;
+		m_entries = entries;
+		m_underflow = (int) underflow;
+		m_overflow = (int) overflow;
+		if (baseBins != null) {
+			m_base = baseBins;
+			m_baseWidth = (m_max - m_min) / baseBins.length;
+		}
+	}
+
 	/**
 	 * Enter data into the histogram. The fill method takes the given value,
 	 * works out which bin this corresponds to, and increments this bin by one.
@@ -58,28 +116,286 @@ public class Histogram {
 	 *            is the value to add in to the histogram
 	 */
 	public void fill(double x) {
-		// use findBin method to work out which bin x falls in
-		BinInfo bin = findBin(x);
-		// check the result of findBin in case it was an overflow or underflow
-		if (bin.isUnderflow) {
-			m_underflow++;
-		}
-		if (bin.isOverflow) {
-			m_overflow++;
-		}
-		if (bin.isInRange) {
-			m_hist[bin.index]++;
-		}
+		// work out which bin x falls in, or if it was an overflow or underflow
+		int index = count(x, 1);
 		// print out some debug information if the flag is set
 		if (m_debug) {
 			System.out.println("debug: fill: value " + x + " # underflows "
 					+ m_underflow + " # overflows " + m_overflow
-					+ " bin index " + bin.index);
+					+ " bin index " + Math.max(index, 0));
 		}
 		// count the number of entries made by the fill method
 		m_entries++;
 	}
 
+	/**
+	 * Enter the values from index from up to to of an array into the
+	 * histogram, as if each was passed to fill.
+	 * 
+	 * @param values
+	 *            the array holding the values
+	 * @param from
+	 *            index of the first value to add
+	 * @param to
+	 *            index after the last value to add
+	 */
+	public void fill(float[] values, int from, int to) {
+		if (m_debug) {
+			for (int i = from; i < to; i++) {
+				fill(values[i]);
+			}
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			count(values[i], 1);
+		}
+		m_entries += to - from;
+	}
+
+	/**
+	 * Enter all values of a column view into the histogram, as if each was
+	 * passed to fill.
+	 * 
+	 * @param view
+	 *            the values to add
+	 */
+	public void fill(FloatColumnView view) {
+		if (m_debug) {
+			for (int i = 0; i < view.size(); i++) {
+				fill(view.get(i));
+			}
+			return;
+		}
+		int size = view.size();
+		for (int i = 0; i < size; i++) {
+			count(view.get(i), 1);
+		}
+		m_entries += size;
+	}
+
+	/**
+	 * Take a value that was entered with fill back out of the histogram, as
+	 * when a tuple leaves a query.
+	 * 
+	 * @param x
+	 *            is the value to remove from the histogram
+	 */
+	public void remove(double x) {
+		count(x, -1);
+		m_entries--;
+	}
+
+	/**
+	 * Private internal utility method to add increment to the bin, base bin,
+	 * underflow or overflow count of x.
+	 * 
+	 * @return the bin index of x
+	 */
+	private int count(double x, int increment) {
+		if (m_frequencies != null) {
+			m_frequencies.add((float) x, increment);
+		}
+		int index = binIndex(x, m_min, m_max, m_nbins, m_binWidth);
+		if (index >= 0) {
+			m_hist[index] += increment;
+		} else if (index == UNDERFLOW) {
+			m_underflow += increment;
+			return index;
+		} else if (index == OVERFLOW) {
+			m_overflow += increment;
+			return index;
+		}
+		if (m_base != null) {
+			int baseIndex = binIndex(x, m_min, m_max, m_base.length, m_baseWidth);
+			if (baseIndex >= 0) {
+				m_base[baseIndex] += increment;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Add the contents of another histogram with the same bins and range to
+	 * this one, as when parts of a column were filled into separate histograms
+	 * on different threads.
+	 * 
+	 * @param other
+	 *            the histogram to add in
+	 */
+	public void merge(Histogram other) {
+		if (other.m_nbins != m_nbins || Double.compare(other.m_min, m_min) != 0
+				|| Double.compare(other.m_max, m_max) != 0) {
+			throw new IllegalArgumentException("Histogram \"" + other.m_name
+					+ "\" does not have the bins of histogram \"" + m_name + "\"");
+		}
+		if ((m_base == null) != (other.m_base == null)
+				|| (m_base != null && m_base.length != other.m_base.length)) {
+			throw new IllegalArgumentException("Histogram \"" + other.m_name
+					+ "\" does not have the base bins of histogram \"" + m_name + "\"");
+		}
+		for (int i = 0; i < m_nbins; i++) {
+			m_hist[i] += other.m_hist[i];
+		}
+		if (m_base != null) {
+			for (int i = 0; i < m_base.length; i++) {
+				m_base[i] += other.m_base[i];
+			}
+		}
+		if (other.m_frequencies != null) {
+			if (m_frequencies == null) {
+				throw new IllegalArgumentException("Histogram \"" + m_name
+						+ "\" does not count distinct values");
+			}
+			m_frequencies.merge(other.m_frequencies);
+		}
+		m_underflow += other.m_underflow;
+		m_overflow += other.m_overflow;
+		m_entries += other.m_entries;
+	}
+
+	/**
+	 * Internal utility method, shared with Histogram2D, to work out the index
+	 * of the bin x falls in without allocating anything. The bin is estimated from the bin width
+	 * and then moved so that, like findBin, it is the first bin whose high edge
+	 * min + (i + 1) * binWidth is not below x, whatever the rounding.
+	 * 
+	 * @return bin index, or UNDERFLOW, OVERFLOW or NO_BIN for a value above
+	 *         the last high edge or NaN
+	 */
+	static int binIndex(double x, double min, double max, int nbins,
+			double binWidth) {
+		if (x < min) {
+			return UNDERFLOW;
+		} else if (x > max) {
+			return OVERFLOW;
+		} else if (x != x || nbins == 0) {
+			return NO_BIN;
+		}
+		double estimate = (x - min) / binWidth;
+		int index = 0;
+		if (estimate >= nbins) {
+			index = nbins - 1;
+		} else if (estimate > 0) {
+			index = (int) estimate;
+		}
+		while (index > 0 && x <= min + index * binWidth) {
+			index--;
+		}
+		while (index < nbins && x > min + (index + 1) * binWidth) {
+			index++;
+		}
+		return index < nbins ? index : NO_BIN;
+	}
+
+	/**
+	 * Derive a histogram of the same range with another number of bins from
+	 * the base bins, or from the bins if there are no base bins, without
+	 * going back to the values. Each base bin is counted in the bin holding
+	 * its centre, so the counts are exact when nbins divides the number of
+	 * base bins, apart from values within rounding of a bin edge.
+	 * 
+	 * @param nbins
+	 *            the number of bins of the derived histogram
+	 * @return a new histogram without base bins
+	 */
+	public Histogram rebin(int nbins) {
+		return rebin(nbins, m_min, m_max);
+	}
+
+	/**
+	 * Derive a histogram with another number of bins over part of the range,
+	 * as when zoomed in, from the base bins, or from the bins if there are no
+	 * base bins. Base bins whose centre is outside the new range are counted
+	 * as underflows or overflows.
+	 * 
+	 * @param nbins
+	 *            the number of bins of the derived histogram
+	 * @param min
+	 *            the minimum of the derived range
+	 * @param max
+	 *            the maximum of the derived range
+	 * @return a new histogram without base bins
+	 */
+	public Histogram rebin(int nbins, double min, double max) {
+		if (nbins <= 0) {
+			throw new IllegalArgumentException("Histogram needs at least one bin: " + nbins);
+		}
+		int[] source = m_base != null ? m_base : m_hist;
+		double sourceWidth = (m_max - m_min) / source.length;
+		Histogram histogram = new Histogram(m_name, nbins, min, max);
+		histogram.m_entries = m_entries;
+		histogram.m_underflow = m_underflow;
+		histogram.m_overflow = m_overflow;
+		for (int i = 0; i < source.length; i++) {
+			double centre = m_min + (i + 0.5) * sourceWidth;
+			if (source[i] == 0) {
+				continue;
+			} else if (centre < min) {
+				histogram.m_underflow += source[i];
+			} else if (centre > max) {
+				histogram.m_overflow += source[i];
+			} else {
+				int index = max > min ? (int) ((centre - min) / (max - min) * nbins) : 0;
+				histogram.m_hist[Math.min(index, nbins - 1)] += source[i];
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Create an empty histogram with the same bins and range, which keeps base
+	 * bins and counts distinct values if this one does, so it can be filled
+	 * separately and merged.
+	 * 
+	 * @return a new empty histogram
+	 */
+	Histogram emptyCopy() {
+		Histogram histogram = new Histogram(m_name, m_nbins, m_min, m_max,
+				numberOfBaseBins());
+		if (m_frequencies != null) {
+			histogram.countDistinctValues();
+		}
+		return histogram;
+	}
+
+	/**
+	 * Count each distinct value filled in from now on in a frequency table,
+	 * which needs memory for the distinct values rather than their range.
+	 */
+	public void countDistinctValues() {
+		if (m_frequencies == null) {
+			m_frequencies = new FrequencyTable();
+		}
+	}
+
+	/**
+	 * Get the frequency table of the distinct values filled in.
+	 * 
+	 * @return the frequency table, or null if countDistinctValues was not
+	 *         called
+	 */
+	public FrequencyTable getFrequencyTable() {
+		return m_frequencies;
+	}
+
+	/**
+	 * Get the number of base bins kept for rebin.
+	 * 
+	 * @return number of base bins, or 0 if there are none
+	 */
+	public int numberOfBaseBins() {
+		return m_base == null ? 0 : m_base.length;
+	}
+
+	/**
+	 * Get the base bin counts without copying them.
+	 * 
+	 * @return array of base bin counts, which must not be changed, or null
+	 */
+	int[] getBaseCounts() {
+		return m_base;
+	}
+
 	/**
 	 * Private class used internally to store info about which bin of the
 	 * histogram to use for a number to be filled.
@@ -104,24 +420,16 @@ public class Histogram {
 		bin.isInRange = false;
 		bin.isUnderflow = false;
 		bin.isOverflow = false;
-		// first check if x is outside the range of the normal histogram bins
-		if (x < m_min) {
+		int index = binIndex(x, m_min, m_max, m_nbins, m_binWidth);
+		if (index == UNDERFLOW) {
 			bin.isUnderflow = true;
-		} else if (x > m_max) {
+		} else if (index == OVERFLOW) {
 			bin.isOverflow = true;
-		} else {
-			// search for histogram bin into which x falls
-			double binWidth = (m_max - m_min) / m_nbins;
-			for (int i = 0; i < m_nbins; i++) {
-				double highEdge = m_min + (i + 1) * binWidth;
-				if (x <= highEdge) {
-					bin.isInRange = true;
-					bin.index = i;
-					bin.highEdge = highEdge;
-					bin.lowEdge = m_min + i * binWidth;
-					break;
-				}
-			}
+		} else if (index >= 0) {
+			bin.isInRange = true;
+			bin.index = index;
+			bin.highEdge = m_min + (index + 1) * m_binWidth;
+			bin.lowEdge = m_min + index * m_binWidth;
 		}
 		return bin;
 
@@ -183,7 +491,7 @@ public class Histogram {
 		outfile.println("overflow " + m_overflow);
 		outfile.println("// binData:");
 		for (int i = 0; i < m_nbins; i++) {
-			outfile.println(m_hist[i]);
+			outfile.println((double) m_hist[i]);
 		}
 		outfile.println("// end.");
 		outfile.close();
@@ -282,9 +590,22 @@ public class Histogram {
 	 * be useful for example if you want to use the histogram in some other way,
 	 * for example to pass to a plotting package.
 	 * 
-	 * @return array of bin heights
+	 * @return a copy of the bin heights
 	 */
 	public double[] getArray() {
+		double[] bins = new double[m_nbins];
+		for (int i = 0; i < m_nbins; i++) {
+			bins[i] = m_hist[i];
+		}
+		return bins;
+	}
+
+	/**
+	 * Get the bin counts without copying them.
+	 * 
+	 * @return array of bin counts, which must not be changed
+	 */
+	public int[] getCounts() {
 		return m_hist;
 	}
 
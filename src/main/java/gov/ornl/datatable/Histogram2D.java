@@ -0,0 +1,157 @@
+package gov.ornl.datatable;
+
+import java.util.Arrays;
+
+/**
+ * Counts of the tuples of a pair of columns in a grid of binCount x binCount
+ * bins over the ranges of the two columns, with a second grid counting the
+ * tuples of the active query, so a scatterplot can be drawn from the counts
+ * instead of the tuples. Values are binned like Histogram bins; tuples with a
+ * value that is NaN or outside a range are not counted in the grids.
+ *
+ * The counts are stored row by row, with the count of x bin ix and y bin iy
+ * at iy * binCount + ix. DataModel.getHistogram2D calculates and caches the
+ * grids of column pairs.
+ */
+public class Histogram2D {
+    private final int binCount;
+    private final double xMin;
+    private final double xMax;
+    private final double yMin;
+    private final double yMax;
+    private final double xBinWidth;
+    private final double yBinWidth;
+    private final int[] counts;
+    private final int[] queryCounts;
+    private int entries = 0;
+    private int queryEntries = 0;
+
+    public Histogram2D(int binCount, double xMin, double xMax, double yMin, double yMax) {
+        if (binCount <= 0) {
+            throw new IllegalArgumentException("Histogram needs at least one bin: " + binCount);
+        }
+        this.binCount = binCount;
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        xBinWidth = (xMax - xMin) / binCount;
+        yBinWidth = (yMax - yMin) / binCount;
+        counts = new int[binCount * binCount];
+        queryCounts = new int[binCount * binCount];
+    }
+
+    // count a tuple in the grid, and also in the query grid if it is queried
+    public void fill(float x, float y, boolean queried) {
+        int bin = bin(x, y);
+        if (bin >= 0) {
+            counts[bin]++;
+            entries++;
+            if (queried) {
+                queryCounts[bin]++;
+                queryEntries++;
+            }
+        }
+    }
+
+    // count a queried tuple in the query grid only
+    public void fillQuery(float x, float y) {
+        int bin = bin(x, y);
+        if (bin >= 0) {
+            queryCounts[bin]++;
+            queryEntries++;
+        }
+    }
+
+    public void clearQueryCounts() {
+        Arrays.fill(queryCounts, 0);
+        queryEntries = 0;
+    }
+
+    // add the counts of a grid with the same bins and ranges, filled from other tuples
+    public void merge(Histogram2D other) {
+        if (other.binCount != binCount || Double.compare(other.xMin, xMin) != 0 ||
+                Double.compare(other.xMax, xMax) != 0 || Double.compare(other.yMin, yMin) != 0 ||
+                Double.compare(other.yMax, yMax) != 0) {
+            throw new IllegalArgumentException("Histograms do not have the same bins");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+            queryCounts[i] += other.queryCounts[i];
+        }
+        entries += other.entries;
+        queryEntries += other.queryEntries;
+    }
+
+    // an empty grid with the same bins and ranges
+    Histogram2D emptyCopy() {
+        return new Histogram2D(binCount, xMin, xMax, yMin, yMax);
+    }
+
+    // index of the grid bin of a tuple, or -1 if it is not counted
+    private int bin(float x, float y) {
+        int ix = Histogram.binIndex(x, xMin, xMax, binCount, xBinWidth);
+        if (ix < 0) {
+            return -1;
+        }
+        int iy = Histogram.binIndex(y, yMin, yMax, binCount, yBinWidth);
+        if (iy < 0) {
+            return -1;
+        }
+        return iy * binCount + ix;
+    }
+
+    public int getBinCount() {
+        return binCount;
+    }
+
+    public double getXMin() {
+        return xMin;
+    }
+
+    public double getXMax() {
+        return xMax;
+    }
+
+    public double getYMin() {
+        return yMin;
+    }
+
+    public double getYMax() {
+        return yMax;
+    }
+
+    public int getCount(int ix, int iy) {
+        return counts[iy * binCount + ix];
+    }
+
+    public int getQueryCount(int ix, int iy) {
+        return queryCounts[iy * binCount + ix];
+    }
+
+    // the counts row by row, not copied, so they must not be changed
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public int[] getQueryCounts() {
+        return queryCounts;
+    }
+
+    // number of tuples counted in the grid
+    public int getEntries() {
+        return entries;
+    }
+
+    public int getQueryEntries() {
+        return queryEntries;
+    }
+
+    public int getMaxCount() {
+        int max = 0;
+        for (int count : counts) {
+            max = Math.max(max, count);
+        }
+        return max;
+    }
+}
@@ -7,14 +7,22 @@ import gov.ornl.datatable.Tuple;
 import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
 import java.util.Random;
 import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -32,174 +40,425 @@ import org.w3c.dom.NodeList;
 
 public class IOUtilities {
 	private static final Logger log = LoggerFactory.getLogger(IOUtilities.class);
+	private static final String COLUMN_DIRECTORY_INFO_FILE = "columns.properties";
+	private static final long MIN_CSV_CHUNK_SIZE = 1 << 22;
+	private static final int CSV_CHUNKS_PER_THREAD = 4;
 
+	// Read a random sample of about sampleFactor of the rows of a CSV file in a single pass.
+	// Each row is kept independently with probability sampleFactor, and only kept rows are parsed.
 	public static void readCSVSample(File f, DataModel dataModel,
 			double sampleFactor) throws IOException {
-		BufferedReader reader = new BufferedReader(new FileReader(f));
-		int totalLineCount = 0;
-		String line = null;
-		while ((line = reader.readLine()) != null) {
-			totalLineCount++;
-		}
-		totalLineCount -= 1; // remove header line
-		reader.close();
+		readCSVSample(f, dataModel, sampleFactor, new Random());
+	}
 
-		log.debug("totalLineCount is " + totalLineCount);
+	// sample as above with a seeded generator, so the same file and seed give the same sample
+	public static void readCSVSample(File f, DataModel dataModel,
+			double sampleFactor, long seed) throws IOException {
+		readCSVSample(f, dataModel, sampleFactor, new Random(seed));
+	}
 
-		int sampleSize = (int) (sampleFactor * totalLineCount);
-		log.debug("sample size is " + sampleSize);
+	private static void readCSVSample(File f, DataModel dataModel, double sampleFactor,
+			Random random) throws IOException {
+		CSVReader reader = new CSVReader(f);
+		try {
+			ArrayList<Column> columns = readCSVHeader(reader);
+			if (columns == null) {
+				return;
+			}
+
+			ColumnStore columnStore = new ColumnStore(columns.size());
+			float[] rowValues = new float[columns.size()];
 
-		int sampleIndices[] = new int[sampleSize];
-		boolean sampleSelected[] = new boolean[totalLineCount];
-		Arrays.fill(sampleSelected, false);
-		Random rand = new Random();
-		for (int i = 0; i < sampleIndices.length; i++) {
-			int index = rand.nextInt(totalLineCount);
-			while (sampleSelected[index]) {
-				log.debug("got a duplicate");
-				index = rand.nextInt(totalLineCount);
+			// the numbers of rows skipped between kept rows are geometrically distributed
+			double logSkipProbability = Math.log(1. - sampleFactor);
+			while (true) {
+				if (sampleFactor < 1.) {
+					long skipCount = sampleFactor <= 0. ? Long.MAX_VALUE :
+							(long)Math.floor(Math.log(1. - random.nextDouble()) / logSkipProbability);
+					if (!reader.skipRows(skipCount)) {
+						break;
+					}
+				}
+
+				int valueCount = reader.readRow(rowValues);
+				if (valueCount == CSVReader.END_OF_FILE) {
+					break;
+				}
+				if (valueCount == columns.size()) {
+					columnStore.addRow(rowValues);
+				} else {
+					log.debug("Sampled row ignored because it is not a complete numeric record.");
+				}
 			}
-			sampleSelected[index] = true;
-			sampleIndices[i] = index;
+
+			dataModel.setData(columnStore, columns);
+		} finally {
+			reader.close();
 		}
+	}
 
-		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-		ArrayList<Column> columns = new ArrayList<Column>();
-		reader = new BufferedReader(new FileReader(f));
+	// Read a uniform random sample of sampleSize rows of a CSV file in a single pass, using
+	// reservoir sampling. Memory is bounded by the sample size and the rows keep their file order.
+	// Lines that are not complete numeric records are passed over, so the sample has sampleSize
+	// rows whenever the file has that many valid ones.
+	public static void readCSVReservoirSample(File f, DataModel dataModel, int sampleSize) throws IOException {
+		readCSVReservoirSample(f, dataModel, sampleSize, new Random());
+	}
 
-		// Read the header line
-		line = reader.readLine();
-		int tokenCounter = 0;
-		StringTokenizer st = new StringTokenizer(line);
-		while (st.hasMoreTokens()) {
-			String token = st.nextToken(",");
-			Column column = new Column(token.trim());
-//			column.setName(token.trim());
-			columns.add(column);
-			tokenCounter++;
-		}
-
-		// Read the data tuples
-		int lineCounter = 0;
-		boolean skipLine = false;
-		while ((line = reader.readLine()) != null) {
-			// is the current line selected to be read
-			if (sampleSelected[lineCounter]) {
-				// read the line as a tuple
-				Tuple tuple = new Tuple();
-				st = new StringTokenizer(line);
-				tokenCounter = 0;
-
-				skipLine = false;
-				while (st.hasMoreTokens()) {
-					String token = st.nextToken(",");
-					try {
-						float value = Float.parseFloat(token);
-
-						// data attribute
-						tuple.addElement(value);
-
-						tokenCounter++;
-					} catch (NumberFormatException ex) {
-						log.debug("NumberFormatException caught so skipping record. "
-								+ ex.fillInStackTrace());
-						skipLine = true;
+	public static void readCSVReservoirSample(File f, DataModel dataModel, int sampleSize,
+			long seed) throws IOException {
+		readCSVReservoirSample(f, dataModel, sampleSize, new Random(seed));
+	}
+
+	private static void readCSVReservoirSample(File f, DataModel dataModel, int sampleSize,
+			Random random) throws IOException {
+		CSVReader reader = new CSVReader(f);
+		try {
+			final ArrayList<Column> columns = readCSVHeader(reader);
+			if (columns == null) {
+				return;
+			}
+
+			// values of the row in each reservoir slot, and the index of the row among the valid rows
+			float[][] reservoir = new float[sampleSize][];
+			final long[] rowNumbers = new long[sampleSize];
+			float[] rowValues = new float[columns.size()];
+			int filledCount = 0;
+			long rowNumber = 0;
+
+			// fill the reservoir with the first valid rows
+			while (filledCount < sampleSize && readValidRow(reader, rowValues)) {
+				reservoir[filledCount] = rowValues.clone();
+				rowNumbers[filledCount] = rowNumber++;
+				filledCount++;
+			}
+
+			// then pass over the valid rows up to each one that replaces a random slot (Li's
+			// algorithm L); a line has to be parsed to tell whether it is a valid row, so the
+			// passed over rows are read rather than skipped
+			if (filledCount == sampleSize && sampleSize > 0) {
+				double w = Math.exp(Math.log(1. - random.nextDouble()) / sampleSize);
+				boolean endOfFile = false;
+				while (!endOfFile) {
+					long skipCount = (long)Math.floor(Math.log(1. - random.nextDouble()) / Math.log(1. - w));
+					for (long i = 0; i < skipCount && !endOfFile; i++) {
+						endOfFile = !readValidRow(reader, rowValues);
+					}
+					rowNumber += skipCount;
+
+					if (endOfFile || !readValidRow(reader, rowValues)) {
 						break;
 					}
+					int slot = random.nextInt(sampleSize);
+					System.arraycopy(rowValues, 0, reservoir[slot], 0, rowValues.length);
+					rowNumbers[slot] = rowNumber++;
+					w *= Math.exp(Math.log(1. - random.nextDouble()) / sampleSize);
 				}
+			}
 
-				if (!skipLine) {
-					// log.debug("added tuple at index " + lineCounter);
-					tuples.add(tuple);
+			// put the sampled rows back in file order
+			Integer[] slots = new Integer[filledCount];
+			for (int i = 0; i < filledCount; i++) {
+				slots[i] = i;
+			}
+			Arrays.sort(slots, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer slot1, Integer slot2) {
+					return Long.compare(rowNumbers[slot1], rowNumbers[slot2]);
 				}
+			});
 
-				// line = reader.readLine();
+			ColumnStore columnStore = new ColumnStore(columns.size(), filledCount);
+			for (Integer slot : slots) {
+				columnStore.addRow(reservoir[slot]);
 			}
-
-			lineCounter++;
+			dataModel.setData(columnStore, columns);
+		} finally {
+			reader.close();
 		}
+	}
 
-		reader.close();
-		dataModel.setData(tuples, columns);
+	// read the next row with a number for every column into values, passing over invalid lines;
+	// returns false at the end of the file
+	private static boolean readValidRow(CSVReader reader, float[] values) throws IOException {
+		while (true) {
+			int valueCount = reader.readRow(values);
+			if (valueCount == CSVReader.END_OF_FILE) {
+				return false;
+			}
+			if (valueCount == values.length) {
+				return true;
+			}
+		}
 	}
 
 	public static void readCSV(File f, DataModel dataModel) throws IOException {
-		BufferedReader reader = new BufferedReader(new FileReader(f));
+		readCSV(f, dataModel, null);
+	}
 
-		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-		ArrayList<Column> columns = new ArrayList<Column>();
+	// read a CSV file into memory-mapped column files written to columnDirectory,
+	// or into heap columns if columnDirectory is null. The data model works on
+	// copy-on-write mappings of the files, as if opened with readColumnDirectory
+	public static void readCSV(File f, DataModel dataModel, File columnDirectory) throws IOException {
+		CSVReader reader = new CSVReader(f);
 
-		String line = reader.readLine();
-		int line_counter = 0;
-
-		boolean skip_line = false;
-		while (line != null) {
-			if (line_counter == 0) {
-				// The first line contains the column headers.
-
-				int token_counter = 0;
-				StringTokenizer st = new StringTokenizer(line);
-				while (st.hasMoreTokens()) {
-					String token = st.nextToken(",");
-					Column column = new Column(token.trim());
-//					column.setName(token.trim());
-					columns.add(column);
-					token_counter++;
+		ArrayList<Column> columns;
+		ColumnStore columnStore;
+
+		try {
+			columns = readCSVHeader(reader);
+			if (columns == null) {
+				return;
+			}
+
+			if (columnDirectory != null) {
+				columnStore = createMappedColumnStore(columnDirectory, columns.size());
+			} else {
+				columnStore = new ColumnStore(columns.size());
+			}
+			float[] rowValues = new float[columns.size()];
+
+			// parse the values straight from the file bytes into the row buffer
+			int valueCount;
+			while ((valueCount = reader.readRow(rowValues)) != CSVReader.END_OF_FILE) {
+				if (valueCount == CSVReader.INVALID_ROW) {
+					log.debug("Row ignored because it has a value that is not a number.");
+				} else if (valueCount != columns.size()) {
+					log.debug("Row ignored because it has "
+							+ (columns.size() - valueCount)
+							+ " column values missing.");
+				} else {
+					columnStore.addRow(rowValues);
 				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		if (columnDirectory != null) {
+			writeColumnDirectoryInfo(columnDirectory, columnStore, columns);
+			readColumnDirectory(columnDirectory, dataModel);
+		} else {
+			dataModel.setData(columnStore, columns);
+		}
+	}
+
+	public static void readCSVParallel(File f, DataModel dataModel) throws IOException {
+		readCSVParallel(f, dataModel, ForkJoinPool.commonPool());
+	}
 
-				line_counter++;
-				line = reader.readLine();
-				continue;
+	// Read a CSV file into heap columns using the threads of a fork-join pool. The file is split
+	// into byte ranges starting at line boundaries, the ranges are parsed in parallel with their
+	// column moments, and the columns are joined in file order. Gives the same tuples as readCSV.
+	public static void readCSVParallel(File f, DataModel dataModel, ForkJoinPool pool) throws IOException {
+		ArrayList<Column> columns;
+		long dataStart;
+
+		CSVReader headerReader = new CSVReader(f);
+		try {
+			columns = readCSVHeader(headerReader);
+			if (columns == null) {
+				return;
 			}
+			dataStart = headerReader.getPosition();
+		} finally {
+			headerReader.close();
+		}
 
-			Tuple tuple = new Tuple();
-			StringTokenizer st = new StringTokenizer(line);
-			int token_counter = 0;
+		// split the data into ranges of whole lines
+		ArrayList<Long> chunkStarts = new ArrayList<Long>();
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			long dataLength = file.length() - dataStart;
+			int chunkCount = (int)Math.max(1, Math.min((long)pool.getParallelism() * CSV_CHUNKS_PER_THREAD,
+					dataLength / MIN_CSV_CHUNK_SIZE));
+			chunkStarts.add(dataStart);
+			for (int ichunk = 1; ichunk < chunkCount; ichunk++) {
+				long chunkStart = CSVReader.findLineStart(file, dataStart + dataLength * ichunk / chunkCount);
+				if (chunkStart > chunkStarts.get(chunkStarts.size() - 1)) {
+					chunkStarts.add(chunkStart);
+				}
+			}
+			chunkStarts.add(file.length());
+		} finally {
+			file.close();
+		}
 
-			skip_line = false;
-			while (st.hasMoreTokens()) {
-				String token = st.nextToken(",");
+		ArrayList<CSVChunkTask> tasks = new ArrayList<CSVChunkTask>();
+		for (int ichunk = 0; ichunk < chunkStarts.size() - 1; ichunk++) {
+			CSVChunkTask task = new CSVChunkTask(f, chunkStarts.get(ichunk), chunkStarts.get(ichunk + 1), columns.size());
+			tasks.add(task);
+			pool.execute(task);
+		}
 
-				try {
-					float value = Float.parseFloat(token);
-
-					// data attribute
-					tuple.addElement(value);
-					token_counter++;
-				} catch (NumberFormatException ex) {
-					System.out
-							.println("DataSet.readCSV(): NumberFormatException caught so skipping record. "
-									+ ex.fillInStackTrace());
-					skip_line = true;
-					break;
+		int rowCount = 0;
+		ColumnMoments[] columnMoments = new ColumnMoments[columns.size()];
+		for (int icolumn = 0; icolumn < columnMoments.length; icolumn++) {
+			columnMoments[icolumn] = new ColumnMoments();
+		}
+		for (CSVChunkTask task : tasks) {
+			try {
+				task.get();
+			} catch (Exception ex) {
+				if (ex.getCause() instanceof UncheckedIOException) {
+					throw ((UncheckedIOException)ex.getCause()).getCause();
 				}
+				throw new IOException("Unable to read " + f, ex);
+			}
+			rowCount += task.rowCount;
+			for (int icolumn = 0; icolumn < columnMoments.length; icolumn++) {
+				columnMoments[icolumn].merge(task.columnMoments[icolumn]);
 			}
+		}
 
-			if (tuple.getElementCount() != columns.size()) {
-				log.debug("Row ignored because it has "
-						+ (columns.size() - tuple.getElementCount())
-						+ " column values missing.");
-				skip_line = true;
+		// join the chunks of each column in file order
+		ArrayList<ColumnBuffer> columnBuffers = new ArrayList<ColumnBuffer>();
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			float[] values = new float[rowCount];
+			int offset = 0;
+			for (CSVChunkTask task : tasks) {
+				task.columnBuffers[icolumn].get(0, values, offset, task.rowCount);
+				offset += task.rowCount;
+				task.columnBuffers[icolumn] = null;
 			}
+			columnBuffers.add(new HeapColumnBuffer(values, rowCount));
+		}
+
+		dataModel.setData(new ColumnStore(columnBuffers), columns, columnMoments);
+	}
 
-			if (!skip_line) {
-				tuples.add(tuple);
+	// parses the rows in one byte range of a CSV file into heap columns and their moments
+	private static class CSVChunkTask extends RecursiveTask<Void> {
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+		private final long start;
+		private final long end;
+		private final HeapColumnBuffer[] columnBuffers;
+		private final ColumnMoments[] columnMoments;
+		private int rowCount = 0;
+
+		CSVChunkTask(File file, long start, long end, int columnCount) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			columnBuffers = new HeapColumnBuffer[columnCount];
+			columnMoments = new ColumnMoments[columnCount];
+		}
+
+		@Override
+		protected Void compute() {
+			int columnCount = columnBuffers.length;
+			// size the buffers for about 8 bytes per value
+			int initialCapacity = (int)Math.min(Integer.MAX_VALUE - 8, (end - start) / (8L * Math.max(columnCount, 1)) + 1);
+			for (int icolumn = 0; icolumn < columnCount; icolumn++) {
+				columnBuffers[icolumn] = new HeapColumnBuffer(initialCapacity);
+				columnMoments[icolumn] = new ColumnMoments();
 			}
+			float[] rowValues = new float[columnCount];
 
-			line_counter++;
-			line = reader.readLine();
+			try {
+				CSVReader reader = new CSVReader(file, start, end);
+				try {
+					int valueCount;
+					while ((valueCount = reader.readRow(rowValues)) != CSVReader.END_OF_FILE) {
+						if (valueCount == CSVReader.INVALID_ROW) {
+							log.debug("Row ignored because it has a value that is not a number.");
+						} else if (valueCount != columnCount) {
+							log.debug("Row ignored because it has "
+									+ (columnCount - valueCount)
+									+ " column values missing.");
+						} else {
+							for (int icolumn = 0; icolumn < columnCount; icolumn++) {
+								columnBuffers[icolumn].append(rowValues[icolumn]);
+								columnMoments[icolumn].add(rowValues[icolumn]);
+							}
+							rowCount++;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			return null;
 		}
+	}
 
-		reader.close();
+	// read the column names from the first line, or return null if the file is empty
+	private static ArrayList<Column> readCSVHeader(CSVReader reader) throws IOException {
+		String line = reader.readLine();
+		if (line == null) {
+			return null;
+		}
 
-		dataModel.setData(tuples, columns);
+		ArrayList<Column> columns = new ArrayList<Column>();
+		StringTokenizer st = new StringTokenizer(line);
+		while (st.hasMoreTokens()) {
+			String token = st.nextToken(",");
+			Column column = new Column(token.trim());
+//			column.setName(token.trim());
+			columns.add(column);
+		}
+		return columns;
+	}
+
+	// open a directory of memory-mapped column files written by readCSV
+	// without reading the column values into the heap
+	public static void readColumnDirectory(File columnDirectory, DataModel dataModel) throws IOException {
+		Properties info = new Properties();
+		FileInputStream inputStream = new FileInputStream(new File(columnDirectory, COLUMN_DIRECTORY_INFO_FILE));
+		try {
+			info.load(inputStream);
+		} finally {
+			inputStream.close();
+		}
+
+		int rowCount = Integer.parseInt(info.getProperty("rowCount"));
+		int columnCount = Integer.parseInt(info.getProperty("columnCount"));
 
-		// dataset.setData(data);
-		// dataset.setAxisNames(axisNames);
-		// dataset.setDataMax(maxData);
-		// dataset.setDataMin(minData);
-		// dataset.setNumberOfDimensions(data.get(0).getElementCount());
+		ArrayList<Column> columns = new ArrayList<Column>();
+		ArrayList<ColumnBuffer> columnBuffers = new ArrayList<ColumnBuffer>();
+		for (int icolumn = 0; icolumn < columnCount; icolumn++) {
+			columns.add(new Column(info.getProperty("column." + icolumn + ".name")));
+			File columnFile = new File(columnDirectory, info.getProperty("column." + icolumn + ".file"));
+			columnBuffers.add(new MappedColumnBuffer(columnFile, rowCount));
+		}
+
+		dataModel.setData(new ColumnStore(columnBuffers), columns);
+	}
+
+	private static ColumnStore createMappedColumnStore(File columnDirectory, int columnCount) throws IOException {
+		if (!columnDirectory.isDirectory() && !columnDirectory.mkdirs()) {
+			throw new IOException("Unable to create column directory " + columnDirectory);
+		}
 
-		// return dataset;
+		ArrayList<ColumnBuffer> columnBuffers = new ArrayList<ColumnBuffer>();
+		for (int icolumn = 0; icolumn < columnCount; icolumn++) {
+			columnBuffers.add(new MappedColumnBuffer(new File(columnDirectory, "column-" + icolumn + ".bin")));
+		}
+		return new ColumnStore(columnBuffers);
+	}
+
+	private static void writeColumnDirectoryInfo(File columnDirectory, ColumnStore columnStore,
+			ArrayList<Column> columns) throws IOException {
+		columnStore.flush();
+
+		Properties info = new Properties();
+		info.setProperty("rowCount", String.valueOf(columnStore.getRowCount()));
+		info.setProperty("columnCount", String.valueOf(columns.size()));
+		for (int icolumn = 0; icolumn < columns.size(); icolumn++) {
+			MappedColumnBuffer columnBuffer = (MappedColumnBuffer)columnStore.getStoredColumnBuffer(icolumn);
+			info.setProperty("column." + icolumn + ".name", columns.get(icolumn).getName());
+			info.setProperty("column." + icolumn + ".file", columnBuffer.getFile().getName());
+		}
+
+		FileOutputStream outputStream = new FileOutputStream(new File(columnDirectory, COLUMN_DIRECTORY_INFO_FILE));
+		try {
+			info.store(outputStream, "DataTable column directory");
+		} finally {
+			outputStream.close();
+		}
 	}
 }
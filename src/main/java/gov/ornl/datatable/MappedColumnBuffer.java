@@ -0,0 +1,181 @@
+package gov.ornl.datatable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Column buffer whose values live in a memory-mapped file rather than on the
+ * Java heap. The file is mapped in fixed-size chunks so columns can grow past
+ * the 2 GB limit of a single mapping, and the operating system page cache only
+ * loads the pages that are actually read. Values are stored as little-endian
+ * floats with no header; the file of a new column grows in whole chunks, so
+ * the number of valid values has to be kept elsewhere.
+ *
+ * A buffer created for a new file writes through to it. A buffer opened over
+ * an existing file maps it read-only and copies a chunk to the heap when a
+ * value in it is first set, so edits, row removals and appends made through a
+ * DataModel never change the file, and read-only files can be opened. Only the
+ * values are mapped, which may be all of the file or just a region of a larger
+ * one, such as one column of a DataModelSnapshot; values appended past them go
+ * to heap chunks, so the file is never extended.
+ */
+public class MappedColumnBuffer extends ColumnBuffer {
+    private static final int CHUNK_SHIFT = 22;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final long CHUNK_BYTES = (long)CHUNK_SIZE * 4;
+
+    private File file;
+    private FileChannel.MapMode mapMode;
+    // byte offset of the values in the file, and for a region mapping the byte length of the region
+    private long offset = 0;
+    private long regionLength = -1;
+    private MappedByteBuffer[] mappedChunks = new MappedByteBuffer[0];
+    private FloatBuffer[] chunks = new FloatBuffer[0];
+
+    // create an empty column in file, replacing any existing content
+    public MappedColumnBuffer(File file) throws IOException {
+        this.file = file;
+        mapMode = FileChannel.MapMode.READ_WRITE;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // map an existing column file holding size values
+    public MappedColumnBuffer(File file, int size) throws IOException {
+        this(file, 0, size);
+    }
+
+    // map size values stored in file at the given byte offset, without touching the rest of the file
+    public MappedColumnBuffer(File file, long offset, int size) throws IOException {
+        this.file = file;
+        this.offset = offset;
+        mapMode = FileChannel.MapMode.READ_ONLY;
+        regionLength = (long)size * 4;
+        if (file.length() < offset + regionLength) {
+            throw new IOException("File " + file + " is too short for " + size + " values at offset " + offset);
+        }
+        mapChunks(size);
+        this.size = size;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public float get(int index) {
+        return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+    }
+
+    @Override
+    public int get(int index, float[] dst, int offset, int length) {
+        int count = Math.min(length, size - index);
+        int copied = 0;
+        while (copied < count) {
+            int position = index + copied;
+            FloatBuffer chunk = chunks[position >>> CHUNK_SHIFT].duplicate();
+            chunk.position(position & CHUNK_MASK);
+            int chunkCount = Math.min(count - copied, chunk.remaining());
+            chunk.get(dst, offset + copied, chunkCount);
+            copied += chunkCount;
+        }
+        return count;
+    }
+
+    @Override
+    public void set(int index, float value) {
+        FloatBuffer chunk = chunks[index >>> CHUNK_SHIFT];
+        if (chunk.isReadOnly()) {
+            chunk = copyChunkToHeap(index >>> CHUNK_SHIFT);
+        }
+        chunk.put(index & CHUNK_MASK, value);
+    }
+
+    @Override
+    public void flush() {
+        if (mapMode == FileChannel.MapMode.READ_WRITE) {
+            for (MappedByteBuffer mappedChunk : mappedChunks) {
+                mappedChunk.force();
+            }
+        }
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        if (regionLength >= 0) {
+            growRegion(minCapacity);
+        } else if (minCapacity > chunks.length * CHUNK_SIZE) {
+            try {
+                mapChunks(minCapacity);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to grow column file " + file, ex);
+            }
+        }
+    }
+
+    private void mapChunks(int minCapacity) throws IOException {
+        int chunkCount = (int)(((long)minCapacity + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+        if (chunkCount <= chunks.length) {
+            return;
+        }
+
+        // the mappings stay valid after the channel is closed
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file,
+                mapMode == FileChannel.MapMode.READ_WRITE ? "rw" : "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer[] newMappedChunks = Arrays.copyOf(mappedChunks, chunkCount);
+            FloatBuffer[] newChunks = Arrays.copyOf(chunks, chunkCount);
+            for (int ichunk = chunks.length; ichunk < chunkCount; ichunk++) {
+                // a region mapping stops at the end of the region so the file is never extended
+                long chunkBytes = regionLength >= 0 ? Math.min(CHUNK_BYTES, regionLength - ichunk * CHUNK_BYTES) : CHUNK_BYTES;
+                MappedByteBuffer mappedChunk = channel.map(mapMode, offset + ichunk * CHUNK_BYTES, chunkBytes);
+                mappedChunk.order(ByteOrder.LITTLE_ENDIAN);
+                newMappedChunks[ichunk] = mappedChunk;
+                newChunks[ichunk] = mappedChunk.asFloatBuffer();
+            }
+            mappedChunks = newMappedChunks;
+            chunks = newChunks;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // grow a region mapping with heap chunks, first copying a partly mapped last chunk to the heap
+    private void growRegion(int minCapacity) {
+        int chunkCount = (int)(((long)minCapacity + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+        int lastChunk = chunks.length - 1;
+        if (lastChunk >= 0 && chunks[lastChunk].capacity() < CHUNK_SIZE && minCapacity > lastChunk * CHUNK_SIZE + chunks[lastChunk].capacity()) {
+            copyChunkToHeap(lastChunk);
+        }
+        if (chunkCount > chunks.length) {
+            int oldChunkCount = chunks.length;
+            chunks = Arrays.copyOf(chunks, chunkCount);
+            for (int ichunk = oldChunkCount; ichunk < chunkCount; ichunk++) {
+                chunks[ichunk] = FloatBuffer.allocate(CHUNK_SIZE);
+            }
+        }
+    }
+
+    // replace a read-only mapped chunk with a full size heap copy of its values
+    private FloatBuffer copyChunkToHeap(int ichunk) {
+        FloatBuffer heapChunk = FloatBuffer.allocate(CHUNK_SIZE);
+        FloatBuffer mappedChunk = chunks[ichunk].duplicate();
+        mappedChunk.rewind();
+        heapChunk.put(mappedChunk);
+        chunks[ichunk] = heapChunk;
+        return heapChunk;
+    }
+}
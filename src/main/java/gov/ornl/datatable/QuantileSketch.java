@@ -0,0 +1,375 @@
+package gov.ornl.datatable;
+
+import java.util.Arrays;
+
+/**
+ * Approximate quantiles of a stream of values in a KLL sketch (Karnin, Lang and
+ * Liberty). Values are kept in levels where an item at level h stands for 2^h
+ * values; a full level is sorted and every other item is promoted to the next
+ * level. The sketch keeps O(k) items however many values are added, and a
+ * quantile's rank is off by about getRankError() * getCount() at most with high
+ * probability. Sketches of separate parts of a column can be merged, so chunks
+ * read or summarized on different threads combine into one sketch.
+ *
+ * NaN values are not added. Compaction offsets come from a fixed-seed generator,
+ * so adding or merging the same values in the same order gives the same sketch.
+ */
+public class QuantileSketch {
+    public static final double DEFAULT_RANK_ERROR = 0.01;
+
+    private static final int MIN_K = 8;
+    private static final int MIN_LEVEL_CAPACITY = 8;
+    private static final double LEVEL_CAPACITY_RATIO = 2. / 3.;
+    private static final int MAX_LEVELS = 61;
+
+    private final int k;
+    private float[][] levels = new float[1][];
+    private int[] levelSizes = new int[1];
+    private int levelCount = 1;
+    // capacity of each level and of all levels, which only change when a level is added
+    private int[] levelCapacities;
+    private int totalCapacity;
+    private int retainedCount = 0;
+    private long n = 0;
+    private float min = Float.NaN;
+    private float max = Float.NaN;
+    private long randomState = 0x9E3779B97F4A7C15L;
+    // retained items sorted by value with their level, built on demand for queries
+    private long[] sortedItems;
+
+    public QuantileSketch() {
+        this(DEFAULT_RANK_ERROR);
+    }
+
+    // a sketch whose quantile ranks are off by at most rankError * count with high probability
+    public QuantileSketch(double rankError) {
+        this(kForRankError(rankError));
+    }
+
+    public QuantileSketch(int k) {
+        this.k = Math.max(k, MIN_K);
+        updateCapacities();
+        levels[0] = new float[levelCapacity(0)];
+    }
+
+    // a sketch holding the items of each level and the state written from another sketch
+    static QuantileSketch fromLevels(int k, float[][] levels, long n, float min, float max, long randomState) {
+        QuantileSketch sketch = new QuantileSketch(k);
+        if (levels.length < 1 || levels.length > MAX_LEVELS) {
+            throw new IllegalArgumentException("Quantile sketch cannot have " + levels.length + " levels");
+        }
+        sketch.levels = new float[levels.length][];
+        sketch.levelSizes = new int[levels.length];
+        sketch.levelCount = levels.length;
+        for (int h = 0; h < levels.length; h++) {
+            sketch.levels[h] = Arrays.copyOf(levels[h], Math.max(levels[h].length, MIN_LEVEL_CAPACITY));
+            sketch.levelSizes[h] = levels[h].length;
+            sketch.retainedCount += levels[h].length;
+        }
+        sketch.updateCapacities();
+        sketch.n = n;
+        sketch.min = min;
+        sketch.max = max;
+        sketch.randomState = randomState;
+        return sketch;
+    }
+
+    // the smallest k whose single quantile rank error is at most rankError, using the empirical
+    // error constants of the Apache DataSketches KLL implementation
+    public static int kForRankError(double rankError) {
+        if (!(rankError > 0.) || rankError >= 1.) {
+            throw new IllegalArgumentException("Rank error must be between 0 and 1: " + rankError);
+        }
+        return Math.max(MIN_K, (int)Math.ceil(Math.pow(2.296 / rankError, 1. / 0.9723)));
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public double getRankError() {
+        return 2.296 / Math.pow(k, 0.9723);
+    }
+
+    // number of values added, including those merged from other sketches
+    public long getCount() {
+        return n;
+    }
+
+    public int getRetainedCount() {
+        return retainedCount;
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    public float getMin() {
+        return min;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    // the items of each level and the generator state, to be restored by fromLevels
+    int getLevelCount() {
+        return levelCount;
+    }
+
+    float[] getLevel(int level) {
+        return Arrays.copyOf(levels[level], levelSizes[level]);
+    }
+
+    long getRandomState() {
+        return randomState;
+    }
+
+    public void update(float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        n++;
+        if (Float.isNaN(min) || value < min) {
+            min = value;
+        }
+        if (Float.isNaN(max) || value > max) {
+            max = value;
+        }
+        append(0, value);
+        compress();
+    }
+
+    // add the values summarized by another sketch to this one
+    public void merge(QuantileSketch other) {
+        if (other.n == 0) {
+            return;
+        }
+        n += other.n;
+        if (Float.isNaN(min) || other.min < min) {
+            min = other.min;
+        }
+        if (Float.isNaN(max) || other.max > max) {
+            max = other.max;
+        }
+        for (int h = 0; h < other.levelCount; h++) {
+            for (int i = 0; i < other.levelSizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        compress();
+    }
+
+    // value whose rank among the added values is about fraction * count, for fraction in [0, 1]
+    public float getQuantile(double fraction) {
+        if (n == 0) {
+            return Float.NaN;
+        }
+        if (fraction <= 0.) {
+            return min;
+        }
+        if (fraction >= 1.) {
+            return max;
+        }
+        long[] items = getSortedItems();
+        double target = fraction * n;
+        long weight = 0;
+        for (long item : items) {
+            weight += 1L << itemLevel(item);
+            if (weight > target) {
+                return itemValue(item);
+            }
+        }
+        return max;
+    }
+
+    // Estimate percentile p, from 0 to 100, like the legacy commons-math Percentile estimator by
+    // interpolating between the values ranked floor(p * (count + 1) / 100) and the next. The
+    // result is exact while no items have been compacted.
+    public double getPercentile(double p) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double pos = p * (n + 1) / 100.;
+        if (n == 1 || pos < 1) {
+            return min;
+        }
+        if (pos >= n) {
+            return max;
+        }
+        double fpos = Math.floor(pos);
+        double dif = pos - fpos;
+        double lower = getValueAtRank((long) fpos);
+        double upper = getValueAtRank((long) fpos + 1);
+        return lower + dif * (upper - lower);
+    }
+
+    // value at a rank from 1 to count in the approximate sorted order of the added values
+    private float getValueAtRank(long rank) {
+        long weight = 0;
+        for (long item : getSortedItems()) {
+            weight += 1L << itemLevel(item);
+            if (weight >= rank) {
+                return itemValue(item);
+            }
+        }
+        return max;
+    }
+
+    // approximate fraction of the added values that are less than value
+    public double getRank(float value) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        long weight = 0;
+        for (long item : getSortedItems()) {
+            if (!(itemValue(item) < value)) {
+                break;
+            }
+            weight += 1L << itemLevel(item);
+        }
+        return (double)weight / n;
+    }
+
+    // largest retained value not greater than bound, or NaN if there is none
+    public float getLargestValueAtMost(float bound) {
+        if (n == 0 || bound < min) {
+            return Float.NaN;
+        }
+        if (bound >= max) {
+            return max;
+        }
+        float largest = min;
+        for (long item : getSortedItems()) {
+            float value = itemValue(item);
+            if (value > bound) {
+                break;
+            }
+            largest = value;
+        }
+        return largest;
+    }
+
+    // smallest retained value not less than bound, or NaN if there is none
+    public float getSmallestValueAtLeast(float bound) {
+        if (n == 0 || bound > max) {
+            return Float.NaN;
+        }
+        if (bound <= min) {
+            return min;
+        }
+        long[] items = getSortedItems();
+        for (long item : items) {
+            float value = itemValue(item);
+            if (value >= bound) {
+                return value;
+            }
+        }
+        return max;
+    }
+
+    private void append(int level, float value) {
+        while (level >= levelCount) {
+            addLevel();
+        }
+        if (levelSizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], Math.max(levels[level].length * 2, MIN_LEVEL_CAPACITY));
+        }
+        levels[level][levelSizes[level]++] = value;
+        retainedCount++;
+        sortedItems = null;
+    }
+
+    private void addLevel() {
+        if (levelCount == MAX_LEVELS) {
+            throw new IllegalStateException("Quantile sketch is full");
+        }
+        levels = Arrays.copyOf(levels, levelCount + 1);
+        levelSizes = Arrays.copyOf(levelSizes, levelCount + 1);
+        levels[levelCount] = new float[MIN_LEVEL_CAPACITY];
+        levelCount++;
+        updateCapacities();
+    }
+
+    // The capacity of each level; the top level holds k items and each lower level two thirds as
+    // many. Every level's capacity depends on the number of levels.
+    private void updateCapacities() {
+        levelCapacities = new int[levelCount];
+        totalCapacity = 0;
+        for (int h = 0; h < levelCount; h++) {
+            int depth = levelCount - 1 - h;
+            levelCapacities[h] = Math.max(MIN_LEVEL_CAPACITY, (int)Math.ceil(k * Math.pow(LEVEL_CAPACITY_RATIO, depth)));
+            totalCapacity += levelCapacities[h];
+        }
+    }
+
+    private int levelCapacity(int level) {
+        return levelCapacities[level];
+    }
+
+    // compact the lowest full level until the retained items fit the capacity of the levels
+    private void compress() {
+        while (retainedCount > totalCapacity) {
+            int level = 0;
+            while (levelSizes[level] < levelCapacity(level)) {
+                level++;
+            }
+            compactLevel(level);
+        }
+    }
+
+    // sort a level and promote every other item, starting at a random offset, to the next level
+    private void compactLevel(int level) {
+        if (level + 1 == levelCount) {
+            addLevel();
+        }
+        float[] items = levels[level];
+        int size = levelSizes[level];
+        Arrays.sort(items, 0, size);
+
+        // an odd item out stays behind
+        int start = size % 2;
+        int offset = nextRandomBit();
+        for (int i = start + offset; i < size; i += 2) {
+            append(level + 1, items[i]);
+        }
+        retainedCount -= size - start;
+        levelSizes[level] = start;
+        sortedItems = null;
+    }
+
+    private int nextRandomBit() {
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 7;
+        randomState ^= randomState << 17;
+        return (int)(randomState >>> 63);
+    }
+
+    // retained items as longs that sort by value, holding the value bits above the level
+    private long[] getSortedItems() {
+        if (sortedItems == null) {
+            long[] items = new long[retainedCount];
+            int count = 0;
+            for (int h = 0; h < levelCount; h++) {
+                for (int i = 0; i < levelSizes[h]; i++) {
+                    int bits = Float.floatToIntBits(levels[h][i]);
+                    bits ^= (bits >> 31) & 0x7fffffff;
+                    items[count++] = ((long)bits << 8) | h;
+                }
+            }
+            Arrays.sort(items);
+            sortedItems = items;
+        }
+        return sortedItems;
+    }
+
+    private static float itemValue(long item) {
+        int bits = (int)(item >> 8);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return Float.intBitsToFloat(bits);
+    }
+
+    private static int itemLevel(long item) {
+        return (int)(item & 0xff);
+    }
+}
@@ -1,6 +1,7 @@
 package gov.ornl.datatable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -9,8 +10,15 @@ import java.util.HashMap;
 public class Query {
     private String id;
     private ArrayList<ColumnSelection> columnSelectionList = new ArrayList<ColumnSelection>();
-    private ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    // the queried tuples are kept as ascending row indices into the data model's column store
+    private ColumnStore columnStore;
+    private int[] rows = new int[16];
+    private int rowCount = 0;
+    // incremented whenever the queried rows change
+    private int modificationCount = 0;
     private HashMap<Column, SummaryStats> columnQuerySummaryStatsMap = new HashMap<Column, SummaryStats>();
+    // correlations of the queried tuples, which the query summary statistics list
+    private CorrelationMatrix correlationMatrix;
 
     public Query(String id) {
         this.id = id;
@@ -31,6 +39,14 @@ public class Query {
         columnQuerySummaryStatsMap.put(column, querySummaryStats);
     }
 
+    public CorrelationMatrix getCorrelationMatrix() {
+        return correlationMatrix;
+    }
+
+    public void setCorrelationMatrix(CorrelationMatrix correlationMatrix) {
+        this.correlationMatrix = correlationMatrix;
+    }
+
     public String getID() {
         return id;
     }
@@ -40,22 +56,77 @@ public class Query {
     }
 
     public void addTuple(Tuple tuple) {
-        tuples.add(tuple);
+        if (!tuple.isView()) {
+            throw new IllegalArgumentException("Only tuples of a data model can be added to a query");
+        }
+        columnStore = tuple.getColumnStore();
+        addRow(tuple.getRow());
+    }
+
+    void setColumnStore(ColumnStore columnStore) {
+        this.columnStore = columnStore;
+    }
+
+    ColumnStore getColumnStore() {
+        return columnStore;
+    }
+
+    void addRow(int row) {
+        if (rowCount == rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        rows[rowCount++] = row;
+        modificationCount++;
+    }
+
+    // the returned array is not copied and only its first getTupleCount() entries are valid
+    int[] getRows() {
+        return rows;
+    }
+
+    public int getTupleCount() {
+        return rowCount;
+    }
+
+    int getModificationCount() {
+        return modificationCount;
+    }
+
+    // move the queried rows to their indices in the compacted column store
+    void compactRows(ColumnStore.Compaction compaction) {
+        int compactedCount = 0;
+        for (int i = 0; i < rowCount; i++) {
+            int row = ColumnStore.getCompactedRow(compaction, rows[i]);
+            if (row >= 0) {
+                rows[compactedCount++] = row;
+            }
+        }
+        rowCount = compactedCount;
+        modificationCount++;
     }
 
     public void clearTuples() {
-        tuples.clear();
+        rowCount = 0;
+        modificationCount++;
         columnQuerySummaryStatsMap.clear();
+        correlationMatrix = null;
     }
 
+    // returns row views of the queried tuples
     public ArrayList<Tuple> getTuples() {
-        return tuples;
+        ArrayList<Tuple> tupleViews = new ArrayList<Tuple>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            tupleViews.add(new Tuple(columnStore, rows[i]));
+        }
+        return tupleViews;
     }
 
     public void clearAllColumnSelections() {
         columnSelectionList.clear();
-        tuples.clear();
+        rowCount = 0;
+        modificationCount++;
         columnQuerySummaryStatsMap.clear();
+        correlationMatrix = null;
     }
 
     public void clearColumnSelection(Column column) {
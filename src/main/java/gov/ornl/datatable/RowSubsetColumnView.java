@@ -0,0 +1,40 @@
+package gov.ornl.datatable;
+
+/**
+ * Column view over a subset of the rows of a column buffer, given as an
+ * array of row indices. Used to read the values of the tuples in a query
+ * without copying them.
+ */
+public class RowSubsetColumnView implements FloatColumnView {
+    private ColumnBuffer columnBuffer;
+    private int[] rows;
+    private int rowCount;
+
+    public RowSubsetColumnView(ColumnBuffer columnBuffer, int[] rows, int rowCount) {
+        this.columnBuffer = columnBuffer;
+        this.rows = rows;
+        this.rowCount = rowCount;
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    @Override
+    public float get(int index) {
+        if (index >= rowCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + rowCount);
+        }
+        return columnBuffer.get(rows[index]);
+    }
+
+    @Override
+    public int get(int index, float[] dst, int offset, int length) {
+        int count = Math.min(length, rowCount - index);
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = columnBuffer.get(rows[index + i]);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,135 @@
+package gov.ornl.datatable;
+
+import java.util.Arrays;
+
+/**
+ * The stored rows of a column ordered by their values, so the rows with a
+ * value in a range are found with two binary searches as one run of the
+ * index instead of by testing every row. NaN values are left out, as they
+ * are in no range. Rows appended to the column are merged into the index,
+ * while deleted rows stay in it and are skipped by the caller.
+ *
+ * The index is built for one ColumnBuffer of a ColumnStore and must be
+ * rebuilt when the store's values are changed or moved, which isValid
+ * detects.
+ */
+public class SortedColumnIndex {
+    // values read from the column at a time
+    private static final int READ_VALUES = 4096;
+
+    private final ColumnStore columnStore;
+    private final ColumnBuffer columnBuffer;
+    private final int valueModificationCount;
+    // sorted values other than NaN and the stored row of each
+    private float[] values = new float[0];
+    private int[] rows = new int[0];
+    // number of stored rows of the column in the index
+    private int indexedRowCount = 0;
+
+    public SortedColumnIndex(ColumnStore columnStore, int storedColumn) {
+        this.columnStore = columnStore;
+        columnBuffer = columnStore.getStoredColumnBuffer(storedColumn);
+        valueModificationCount = columnStore.getValueModificationCount();
+        update();
+    }
+
+    // whether the index can still be brought up to date by update
+    public boolean isValid(ColumnStore columnStore, int storedColumn) {
+        return columnStore == this.columnStore && columnStore.getStoredColumnBuffer(storedColumn) == columnBuffer &&
+                columnStore.getValueModificationCount() == valueModificationCount;
+    }
+
+    // merge the rows appended to the column since the index was built or last updated
+    public void update() {
+        int rowCount = columnStore.getRowCount();
+        if (rowCount == indexedRowCount) {
+            return;
+        }
+
+        long[] keys = sortedKeys(indexedRowCount, rowCount);
+        float[] mergedValues = new float[values.length + keys.length];
+        int[] mergedRows = new int[mergedValues.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < mergedValues.length; k++) {
+            // on equal values the indexed rows come first, as they are the lower rows
+            if (j == keys.length || (i < values.length && values[i] <= keyValue(keys[j]))) {
+                mergedValues[k] = values[i];
+                mergedRows[k] = rows[i++];
+            } else {
+                mergedValues[k] = keyValue(keys[j]);
+                mergedRows[k] = (int)keys[j++];
+            }
+        }
+        values = mergedValues;
+        rows = mergedRows;
+        indexedRowCount = rowCount;
+    }
+
+    // number of rows in the index, which leaves out rows with a NaN value
+    public int size() {
+        return values.length;
+    }
+
+    // first index position with a value of at least min
+    public int lowerBound(float min) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < min) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // first index position with a value greater than max
+    public int upperBound(float max) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= max) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // stored row at an index position
+    public int getRow(int position) {
+        return rows[position];
+    }
+
+    // Values of the rows from fromRow to toRow other than NaN, sorted, each with its row in the
+    // low half of a long whose high half orders like the value. -0 sorts before 0, which the
+    // float comparisons of the binary searches treat as equal, so runs are not split by it.
+    private long[] sortedKeys(int fromRow, int toRow) {
+        long[] keys = new long[toRow - fromRow];
+        int keyCount = 0;
+        float[] buffer = new float[Math.min(READ_VALUES, toRow - fromRow)];
+        for (int row = fromRow; row < toRow; row += buffer.length) {
+            int count = columnBuffer.get(row, buffer, 0, Math.min(buffer.length, toRow - row));
+            for (int i = 0; i < count; i++) {
+                if (!Float.isNaN(buffer[i])) {
+                    int bits = Float.floatToIntBits(buffer[i]);
+                    int orderedBits = bits ^ ((bits >> 31) & 0x7fffffff);
+                    keys[keyCount++] = ((long)orderedBits << 32) | (row + i);
+                }
+            }
+        }
+        keys = Arrays.copyOf(keys, keyCount);
+        Arrays.parallelSort(keys);
+        return keys;
+    }
+
+    private static float keyValue(long key) {
+        int orderedBits = (int)(key >> 32);
+        return Float.intBitsToFloat(orderedBits ^ ((orderedBits >> 31) & 0x7fffffff));
+    }
+}
@@ -1,11 +1,28 @@
 package gov.ornl.datatable;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by csg on 11/25/14.
+ *
+ * The statistics are kept in groups that a data model can mark out of date
+ * instead of recalculating them. A group that is out of date is calculated by
+ * the data model the first time one of its values is read.
  */
 public class SummaryStats {
+    // groups of statistics that are calculated together
+    public static final int MOMENTS = 1;
+    public static final int QUANTILES = 2;
+    public static final int HISTOGRAM = 4;
+    public static final int CORRELATIONS = 8;
+    public static final int ALL = MOMENTS | QUANTILES | HISTOGRAM | CORRELATIONS;
+
+    // calculates groups of statistics that are out of date when they are read
+    interface Calculator {
+        void calculate(SummaryStats summaryStats, int groups);
+    }
+
     private float min;
     private float max;
     private float mean;
@@ -20,30 +37,98 @@ public class SummaryStats {
     private float lowerWhisker;
     private int numNaN = 0;
 
-    private ArrayList<Float> corrCoefs = new ArrayList<Float>();
+    // usually a view of a row of the data model's CorrelationMatrix
+    private List<Float> corrCoefs = new ArrayList<Float>();
     private Histogram histogram;
+    // sketch the quantiles were estimated from, or null when they are exact
+    private QuantileSketch quantileSketch;
+    // running moments of a data model column, which appended tuples are merged into
+    private ColumnMoments moments;
+    private volatile int dirtyGroups = 0;
+    private Calculator calculator;
+
+    // mark groups of statistics as out of date, to be calculated by calculator when read
+    void invalidate(int groups, Calculator calculator) {
+        this.calculator = calculator;
+        dirtyGroups |= groups;
+    }
+
+    // mark groups of statistics as calculated
+    void validate(int groups) {
+        dirtyGroups &= ~groups;
+    }
 
-    public ArrayList<Float> getCorrelationCoefficients() {
+    // true if any of the groups of statistics is out of date
+    public boolean isDirty(int groups) {
+        return (dirtyGroups & groups) != 0;
+    }
+
+    private void calculate(int group) {
+        Calculator calculator = this.calculator;
+        if ((dirtyGroups & group) != 0 && calculator != null) {
+            calculator.calculate(this, group);
+        }
+    }
+
+    public List<Float> getCorrelationCoefficients() {
+        calculate(CORRELATIONS);
         return corrCoefs;
     }
 
+    // number of NaN values, which are left out of the quantiles and the range
+    public int getNumNaN() {
+        calculate(MOMENTS);
+        return numNaN;
+    }
+
+    public void setNumNaN(int numNaN) {
+        this.numNaN = numNaN;
+    }
+
     public float getIQR() {
+        calculate(QUANTILES);
         return quantile3 - quantile1;
     }
 
-    public void setCorrelationCoefficients(ArrayList<Float> corrCoefs) {
+    public void setCorrelationCoefficients(List<Float> corrCoefs) {
         this.corrCoefs = corrCoefs;
     }
 
     public Histogram getHistogram() {
+        calculate(HISTOGRAM);
         return histogram;
     }
 
+    // counts of the distinct values of a discrete column, or null for a continuous one
+    public FrequencyTable getFrequencyTable() {
+        calculate(HISTOGRAM);
+        return histogram == null ? null : histogram.getFrequencyTable();
+    }
+
     public void setHistogram(Histogram histogram) {
         this.histogram = histogram;
     }
 
+    public QuantileSketch getQuantileSketch() {
+        calculate(QUANTILES);
+        return quantileSketch;
+    }
+
+    public void setQuantileSketch(QuantileSketch quantileSketch) {
+        this.quantileSketch = quantileSketch;
+    }
+
+    public ColumnMoments getMoments() {
+        calculate(MOMENTS);
+        return moments;
+    }
+
+    public void setMoments(ColumnMoments moments) {
+        this.moments = moments;
+    }
+
     public float getMin() {
+        calculate(MOMENTS);
         return min;
     }
 
@@ -52,6 +137,7 @@ public class SummaryStats {
     }
 
     public float getMax() {
+        calculate(MOMENTS);
         return max;
     }
 
@@ -60,6 +146,7 @@ public class SummaryStats {
     }
 
     public float getMean() {
+        calculate(MOMENTS);
         return mean;
     }
 
@@ -68,6 +155,7 @@ public class SummaryStats {
     }
 
     public float getMedian() {
+        calculate(QUANTILES);
         return median;
     }
 
@@ -76,6 +164,7 @@ public class SummaryStats {
     }
 
     public float getVariance() {
+        calculate(MOMENTS);
         return variance;
     }
 
@@ -84,6 +173,7 @@ public class SummaryStats {
     }
 
     public float getStandardDeviation() {
+        calculate(MOMENTS);
         return standardDeviation;
     }
 
@@ -92,6 +182,7 @@ public class SummaryStats {
     }
 
     public float getQuantile1() {
+        calculate(QUANTILES);
         return quantile1;
     }
 
@@ -100,6 +191,7 @@ public class SummaryStats {
     }
 
     public float getQuantile3() {
+        calculate(QUANTILES);
         return quantile3;
     }
 
@@ -108,6 +200,7 @@ public class SummaryStats {
     }
 
     public float getSkewness() {
+        calculate(MOMENTS);
         return skewness;
     }
 
@@ -116,6 +209,7 @@ public class SummaryStats {
     }
 
     public float getKurtosis() {
+        calculate(MOMENTS);
         return kurtosis;
     }
 
@@ -124,6 +218,7 @@ public class SummaryStats {
     }
 
     public float getUpperWhisker() {
+        calculate(QUANTILES);
         return upperWhisker;
     }
 
@@ -132,6 +227,7 @@ public class SummaryStats {
     }
 
     public float getLowerWhisker() {
+        calculate(QUANTILES);
         return lowerWhisker;
     }
 
@@ -1,41 +1,80 @@
 package gov.ornl.datatable;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ * A row of values. A tuple either owns its values, as when it is built with
+ * addElement before being handed to a DataModel, or it is a lightweight view
+ * of a row held in a ColumnStore, as returned by the DataModel getters.
+ */
 public class Tuple implements Serializable {
 	private static final long serialVersionUID = -7700532324842188078L;
 
-	private ArrayList<Float> elements = new ArrayList<Float>();
+	private float[] elements;
+	private int elementCount = 0;
 	// private ArrayList<Integer> xPositions = new ArrayList<Integer>();
 	// private ArrayList<Integer> yPositions = new ArrayList<Integer>();
 	// private ArrayList<Point> scatterplotPoints = new ArrayList<Point>();
 
+	// set when this tuple is a view of a row in a column store
+	private transient ColumnStore store;
+	private int row;
+
 	private boolean queryFlag = true;
 
 	private int orderFactor = 0;
 
 	public Tuple() {
+		elements = new float[8];
 	}
 
     public Tuple (Tuple copyTuple) {
+        elements = new float[Math.max(copyTuple.getElementCount(), 1)];
         for (int i = 0; i < copyTuple.getElementCount(); i++) {
-            elements.add(copyTuple.getElement(i));
+            elements[i] = copyTuple.getElement(i);
         }
+        elementCount = copyTuple.getElementCount();
+        queryFlag = copyTuple.getQueryFlag();
+        orderFactor = copyTuple.getOrderFactor();
     }
 
+	Tuple(ColumnStore store, int row) {
+		this.store = store;
+		this.row = row;
+	}
+
+	public boolean isView() {
+		return store != null;
+	}
+
+	ColumnStore getColumnStore() {
+		return store;
+	}
+
+	// index of the viewed row in the column store, or -1 if this tuple owns its values
+	public int getRow() {
+		return store != null ? row : -1;
+	}
+
     public Float[] getElementsAsArray() {
-        Float elementArray [] = new Float[elements.size()];
-        elements.toArray(elementArray);
+        Float elementArray [] = new Float[getElementCount()];
+        for (int i = 0; i < elementArray.length; i++) {
+            elementArray[i] = getElement(i);
+        }
         return elementArray;
     }
 
     public void removeAllElements() {
-        elements.clear();
+        checkNotView();
+        elementCount = 0;
     }
 
 	public void removeElement(int index) {
-		elements.remove(index);
+		checkNotView();
+		checkIndex(index);
+		System.arraycopy(elements, index + 1, elements, index, elementCount - index - 1);
+		elementCount--;
 	}
 
 	public void moveElement(int currentElementIndex, int newElementIndex) {
@@ -43,17 +82,17 @@ public class Tuple implements Serializable {
 			return;
 		}
 
-		float tmp = elements.get(currentElementIndex);
+		float tmp = getElement(currentElementIndex);
 		if (currentElementIndex < newElementIndex) {
 			for (int i = currentElementIndex; i < newElementIndex; i++) {
-				elements.set(i, elements.get(i + 1));
+				setElement(i, getElement(i + 1));
 			}
 		} else {
 			for (int i = currentElementIndex; i > newElementIndex; i--) {
-				elements.set(i, elements.get(i - 1));
+				setElement(i, getElement(i - 1));
 			}
 		}
-		elements.set(newElementIndex, tmp);
+		setElement(newElementIndex, tmp);
 	}
 
 	// public void addScatterplotPoint(int x, int y) {
@@ -73,11 +112,20 @@ public class Tuple implements Serializable {
 	// }
 	//
 	public void setElement(int idx, float value) {
-		elements.set(idx, value);
+		if (store != null) {
+			store.setValue(row, idx, value);
+		} else {
+			checkIndex(idx);
+			elements[idx] = value;
+		}
 	}
 
 	public void addElement(float value) {
-		elements.add(value);
+		checkNotView();
+		if (elementCount == elements.length) {
+			elements = Arrays.copyOf(elements, elements.length * 2);
+		}
+		elements[elementCount++] = value;
 	}
 
 	public boolean equals(Tuple tuple) {
@@ -92,30 +140,93 @@ public class Tuple implements Serializable {
 		return false;
 	}
 
+	// two views of the same row are the same tuple; tuples that own their values use identity
+	@Override
+	public boolean equals(Object object) {
+		if (this == object) {
+			return true;
+		}
+		if (store == null || !(object instanceof Tuple)) {
+			return false;
+		}
+		Tuple other = (Tuple) object;
+		return other.store == store && other.row == row;
+	}
+
+	@Override
+	public int hashCode() {
+		if (store == null) {
+			return super.hashCode();
+		}
+		return 31 * System.identityHashCode(store) + row;
+	}
+
 	public float getElement(int idx) {
-		return elements.get(idx);
+		if (store != null) {
+			return store.getValue(row, idx);
+		}
+		checkIndex(idx);
+		return elements[idx];
 	}
 
 	public int getElementCount() {
-		return elements.size();
+		if (store != null) {
+			return store.getColumnCount();
+		}
+		return elementCount;
 	}
 
 	public void setQueryFlag(boolean enabled) {
-		queryFlag = enabled;
+		if (store != null) {
+			store.setQueryFlag(row, enabled);
+		} else {
+			queryFlag = enabled;
+		}
 	}
 
 	public boolean getQueryFlag() {
+		if (store != null) {
+			return store.getQueryFlag(row);
+		}
 		return queryFlag;
 	}
 
+	// a view keeps its order factor in the column store, so it is seen by every view of the row
 	public void setOrderFactor(int order) {
-		orderFactor = order;
+		if (store != null) {
+			store.setOrderFactor(row, order);
+		} else {
+			orderFactor = order;
+		}
 	}
 
 	public int getOrderFactor() {
+		if (store != null) {
+			return store.getOrderFactor(row);
+		}
 		return orderFactor;
 	}
 
+	private void checkNotView() {
+		if (store != null) {
+			throw new UnsupportedOperationException("Elements cannot be added or removed through a row view");
+		}
+	}
+
+	private void checkIndex(int idx) {
+		if (idx >= elementCount) {
+			throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + elementCount);
+		}
+	}
+
+	// a view is serialized as a standalone copy of its row
+	private Object writeReplace() {
+		if (store != null) {
+			return new Tuple(this);
+		}
+		return this;
+	}
+
 	//
 	// public int getValueYPosition (int index) {
 	// return ((Integer)yPositions.get(index)).intValue();
@@ -141,6 +252,7 @@ public class Tuple implements Serializable {
 	// }
 	//
 	public int compareTo(Object object) {
+		int orderFactor = getOrderFactor();
 		int otherOrderFactor = ((Tuple) object).getOrderFactor();
 		if (orderFactor < otherOrderFactor) {
 			return 1;
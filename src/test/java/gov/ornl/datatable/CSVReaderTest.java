@@ -0,0 +1,93 @@
+package gov.ornl.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CSVReaderTest {
+    // parse text as a field in the middle of a line, as readRow does
+    private static float parseFloat(String text) {
+        byte[] bytes = ("x," + text + ",y").getBytes(StandardCharsets.ISO_8859_1);
+        return CSVReader.parseFloat(bytes, 2, bytes.length - 2);
+    }
+
+    private static void assertParsesLikeFloat(String text) {
+        float expected = Float.parseFloat(text);
+        float actual = parseFloat(text);
+        if (Float.floatToIntBits(expected) != Float.floatToIntBits(actual)) {
+            fail("\"" + text + "\" parsed as " + actual + " instead of " + expected);
+        }
+    }
+
+    @Test
+    public void parseFloatMatchesFloatParseFloat() {
+        String[] texts = {
+                "0", "-0", "+0", "0.0", "-0.0", "1", "-1", "+1", "1.", ".5", "-.5", "3.14159", "0.1", "0.2", "0.3",
+                "100", "1e10", "1E10", "1e-10", "-2.5e+3", "123456789", "1234567890123456789", "0.000001",
+                "16777217", "16777216.5", "33554431", "3.4028235e38", "3.4028236e38", "1e39", "1.4e-45",
+                "1.17549435e-38", "1e-46", "  42 ", "\t7.5\t", "007", "1.000000000000000000001",
+                "NaN", "-Infinity", "Infinity", "0x1p3", "1f", "2.5d"
+        };
+        for (String text : texts) {
+            assertParsesLikeFloat(text);
+        }
+    }
+
+    @Test
+    public void parseFloatMatchesFloatParseFloatOnRandomValues() {
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            // the shortest text of a float, which reads back to the same float
+            assertParsesLikeFloat(Float.toString(Float.intBitsToFloat(random.nextInt())));
+        }
+        for (int i = 0; i < 200000; i++) {
+            // plain decimals with up to 20 digits, which also round between floats
+            StringBuilder text = new StringBuilder();
+            if (random.nextBoolean()) {
+                text.append('-');
+            }
+            int digitCount = 1 + random.nextInt(20);
+            int point = random.nextInt(digitCount + 1);
+            for (int digit = 0; digit < digitCount; digit++) {
+                if (digit == point) {
+                    text.append('.');
+                }
+                text.append((char)('0' + random.nextInt(10)));
+            }
+            if (random.nextInt(4) == 0) {
+                text.append('e').append(random.nextInt(80) - 40);
+            }
+            assertParsesLikeFloat(text.toString());
+        }
+    }
+
+    @Test
+    public void parseFloatRejectsWhatFloatParseFloatRejects() {
+        String[] texts = {"", " ", "-", ".", "1e", "1e+", "1.2.3", "abc", "--1", "1,5"};
+        for (String text : texts) {
+            try {
+                Float.parseFloat(text);
+                fail("Float.parseFloat accepted \"" + text + "\"");
+            } catch (NumberFormatException e) {
+                // expected
+            }
+            try {
+                parseFloat(text);
+                fail("parseFloat accepted \"" + text + "\"");
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void parseFloatRoundsOnceFromTheDecimal() {
+        // 16777217 is halfway between two floats and rounds to even
+        assertEquals(16777216.f, parseFloat("16777217"), 0.f);
+        assertEquals(16777218.f, parseFloat("16777217.000001"), 0.f);
+    }
+}
@@ -0,0 +1,124 @@
+package gov.ornl.datatable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DataModelSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // tuples of a gaussian, a discrete and a uniform column with some NaN values
+    private static ArrayList<Tuple> createTuples(Random random, int count) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < count; i++) {
+            Tuple tuple = new Tuple();
+            tuple.addElement((float)random.nextGaussian());
+            tuple.addElement(random.nextInt(8));
+            tuple.addElement(random.nextInt(50) == 0 ? Float.NaN : random.nextFloat());
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    private static DataModel createDataModel(ArrayList<Tuple> tuples) {
+        ArrayList<Column> columns = new ArrayList<Column>();
+        columns.add(new Column("gaussian"));
+        columns.add(new Column("discrete"));
+        columns.add(new Column("uniform"));
+        DataModel dataModel = new DataModel();
+        dataModel.setData(tuples, columns);
+        dataModel.makeColumnDiscrete(dataModel.getColumn(1));
+        return dataModel;
+    }
+
+    private DataModel saveAndLoad(DataModel dataModel) throws IOException {
+        File file = folder.newFile("model.snapshot");
+        dataModel.saveSnapshot(file);
+        DataModel loadedDataModel = new DataModel();
+        loadedDataModel.loadSnapshot(file);
+        return loadedDataModel;
+    }
+
+    private static void assertSameStatistics(SummaryStats expected, SummaryStats actual) {
+        assertEquals(expected.getMin(), actual.getMin(), 0.f);
+        assertEquals(expected.getMax(), actual.getMax(), 0.f);
+        assertEquals(expected.getMean(), actual.getMean(), 1e-6f);
+        assertEquals(expected.getVariance(), actual.getVariance(), 1e-5f);
+        assertEquals(expected.getSkewness(), actual.getSkewness(), 1e-4f);
+        assertEquals(expected.getKurtosis(), actual.getKurtosis(), 1e-4f);
+        assertEquals(expected.getMedian(), actual.getMedian(), 0.f);
+        assertEquals(expected.getQuantile1(), actual.getQuantile1(), 0.f);
+        assertEquals(expected.getQuantile3(), actual.getQuantile3(), 0.f);
+        assertEquals(expected.getNumNaN(), actual.getNumNaN());
+        assertArrayEquals(expected.getHistogram().getArray(), actual.getHistogram().getArray(), 0.);
+    }
+
+    @Test
+    public void loadedSnapshotHasTheSavedTuplesAndStatistics() throws IOException {
+        DataModel dataModel = createDataModel(createTuples(new Random(3), 5000));
+        dataModel.disableColumn(dataModel.getColumn(2));
+        DataModel loadedDataModel = saveAndLoad(dataModel);
+
+        assertEquals(dataModel.getTupleCount(), loadedDataModel.getTupleCount());
+        assertEquals(2, loadedDataModel.getColumnCount());
+        assertEquals(1, loadedDataModel.getDisabledColumnCount());
+        assertEquals("uniform", loadedDataModel.getDisabledColumns().get(0).getName());
+        assertFalse(loadedDataModel.getDisabledColumns().get(0).isEnabled());
+        assertTrue(loadedDataModel.getColumn(1).isDiscrete());
+        for (int icolumn = 0; icolumn < dataModel.getColumnCount(); icolumn++) {
+            Column column = dataModel.getColumn(icolumn);
+            Column loadedColumn = loadedDataModel.getColumn(icolumn);
+            assertEquals(column.getName(), loadedColumn.getName());
+            assertSameStatistics(column.getSummaryStats(), loadedColumn.getSummaryStats());
+            assertEquals(column.getSummaryStats().getCorrelationCoefficients(),
+                    loadedColumn.getSummaryStats().getCorrelationCoefficients());
+        }
+        for (int i = 0; i < dataModel.getTupleCount(); i++) {
+            Tuple tuple = dataModel.getTuple(i);
+            Tuple loadedTuple = loadedDataModel.getTuple(i);
+            for (int icolumn = 0; icolumn < tuple.getElementCount(); icolumn++) {
+                assertEquals(tuple.getElement(icolumn), loadedTuple.getElement(icolumn), 0.f);
+            }
+        }
+
+        // the disabled column's values come back when it is enabled
+        loadedDataModel.enableColumn(loadedDataModel.getDisabledColumns().get(0));
+        dataModel.enableColumn(dataModel.getDisabledColumns().get(0));
+        for (int i = 0; i < dataModel.getTupleCount(); i++) {
+            assertEquals(dataModel.getTuple(i).getElement(2), loadedDataModel.getTuple(i).getElement(2), 0.f);
+        }
+    }
+
+    @Test
+    public void tuplesAddedAfterLoadingMergeIntoTheSavedStatistics() throws IOException {
+        Random random = new Random(5);
+        ArrayList<Tuple> tuples = createTuples(random, 20000);
+        ArrayList<Tuple> addedTuples = createTuples(random, 20000);
+        DataModel dataModel = createDataModel(tuples);
+        dataModel.setApproximateStatistics(true);
+        DataModel loadedDataModel = saveAndLoad(dataModel);
+        assertTrue(loadedDataModel.isApproximateStatistics());
+
+        dataModel.addTuples(addedTuples);
+        loadedDataModel.addTuples(addedTuples);
+        assertEquals(40000, loadedDataModel.getTupleCount());
+        for (int icolumn = 0; icolumn < dataModel.getColumnCount(); icolumn++) {
+            SummaryStats summaryStats = dataModel.getColumn(icolumn).getSummaryStats();
+            SummaryStats loadedSummaryStats = loadedDataModel.getColumn(icolumn).getSummaryStats();
+            assertFalse(loadedSummaryStats.isDirty(SummaryStats.MOMENTS | SummaryStats.QUANTILES));
+            assertEquals(summaryStats.getQuantileSketch().getCount(), loadedSummaryStats.getQuantileSketch().getCount());
+            assertSameStatistics(summaryStats, loadedSummaryStats);
+        }
+    }
+}
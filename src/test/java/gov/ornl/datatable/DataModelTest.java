@@ -0,0 +1,77 @@
+package gov.ornl.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class DataModelTest {
+    // a model of rowCount tuples whose value in column c is row * 10 + c
+    static DataModel createDataModel(int rowCount, int columnCount) {
+        ArrayList<Column> columns = new ArrayList<Column>();
+        for (int icolumn = 0; icolumn < columnCount; icolumn++) {
+            columns.add(new Column("c" + icolumn));
+        }
+        ColumnStore columnStore = new ColumnStore(columnCount);
+        for (int row = 0; row < rowCount; row++) {
+            float[] values = new float[columnCount];
+            for (int icolumn = 0; icolumn < columnCount; icolumn++) {
+                values[icolumn] = row * 10 + icolumn;
+            }
+            columnStore.addRow(values);
+        }
+        DataModel dataModel = new DataModel();
+        dataModel.setData(columnStore, columns);
+        return dataModel;
+    }
+
+    @Test
+    public void undoTupleRemovalRestoresRemovedTuples() {
+        DataModel dataModel = createDataModel(100, 3);
+        float mean = dataModel.getColumn(0).getSummaryStats().getMean();
+
+        dataModel.addColumnSelectionRangeToActiveQuery(dataModel.getColumn(0), 200.f, 490.f);
+        dataModel.setQueriedTuples();
+        assertEquals(30, dataModel.removeSelectedTuples());
+        assertEquals(70, dataModel.getTupleCount());
+        assertTrue(dataModel.canUndoTupleRemoval());
+        for (int i = 0; i < dataModel.getTupleCount(); i++) {
+            float value = dataModel.getTuple(i).getElement(0);
+            assertTrue(value < 200.f || value > 490.f);
+        }
+
+        assertEquals(30, dataModel.undoTupleRemoval());
+        assertFalse(dataModel.canUndoTupleRemoval());
+        assertEquals(100, dataModel.getTupleCount());
+        for (int row = 0; row < 100; row++) {
+            Tuple tuple = dataModel.getTuple(row);
+            for (int icolumn = 0; icolumn < 3; icolumn++) {
+                assertEquals(row * 10 + icolumn, tuple.getElement(icolumn), 0.f);
+            }
+        }
+        assertEquals(mean, dataModel.getColumn(0).getSummaryStats().getMean(), 0.f);
+    }
+
+    @Test
+    public void undoTupleRemovalUndoesTheLatestRemovalFirst() {
+        DataModel dataModel = createDataModel(100, 2);
+        dataModel.addColumnSelectionRangeToActiveQuery(dataModel.getColumn(0), 0.f, 90.f);
+        dataModel.setQueriedTuples();
+        assertEquals(10, dataModel.removeSelectedTuples());
+        dataModel.addColumnSelectionRangeToActiveQuery(dataModel.getColumn(0), 500.f, 1000.f);
+        dataModel.setQueriedTuples();
+        assertEquals(40, dataModel.removeUnselectedTuples());
+        assertEquals(50, dataModel.getTupleCount());
+
+        assertEquals(40, dataModel.undoTupleRemoval());
+        assertEquals(90, dataModel.getTupleCount());
+        assertEquals(100.f, dataModel.getTuple(0).getElement(0), 0.f);
+        assertEquals(10, dataModel.undoTupleRemoval());
+        assertEquals(100, dataModel.getTupleCount());
+        assertEquals(0.f, dataModel.getTuple(0).getElement(0), 0.f);
+        assertEquals(0, dataModel.undoTupleRemoval());
+    }
+}
@@ -0,0 +1,109 @@
+package gov.ornl.datatable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QuantileSketchTest {
+    // the values 0 to count - 1 in random order, so a value is its own rank
+    private static float[] shuffledRanks(int count, Random random) {
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i;
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            float value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return values;
+    }
+
+    private static void assertRankErrorWithinBound(QuantileSketch sketch, int count) {
+        double bound = sketch.getRankError();
+        for (int i = 1; i < 100; i++) {
+            double fraction = i / 100.;
+            double rank = sketch.getQuantile(fraction) / count;
+            assertTrue("quantile " + fraction + " has rank " + rank, Math.abs(rank - fraction) <= bound);
+            float value = (float)Math.floor(fraction * count);
+            assertTrue("rank of " + value, Math.abs(sketch.getRank(value) - value / count) <= bound);
+        }
+    }
+
+    @Test
+    public void quantileRanksAreWithinTheRankError() {
+        int count = 1000000;
+        float[] values = shuffledRanks(count, new Random(11));
+        for (double rankError : new double[] {0.05, QuantileSketch.DEFAULT_RANK_ERROR, 0.002}) {
+            QuantileSketch sketch = new QuantileSketch(rankError);
+            assertTrue(sketch.getRankError() <= rankError);
+            for (float value : values) {
+                sketch.update(value);
+            }
+            assertEquals(count, sketch.getCount());
+            assertEquals(0.f, sketch.getMin(), 0.f);
+            assertEquals(count - 1, sketch.getMax(), 0.f);
+            assertTrue(sketch.getRetainedCount() < count / 100);
+            assertRankErrorWithinBound(sketch, count);
+        }
+    }
+
+    @Test
+    public void mergedSketchesAreWithinTheRankError() {
+        int count = 1000000;
+        float[] values = shuffledRanks(count, new Random(13));
+        QuantileSketch sketch = new QuantileSketch();
+        for (int part = 0; part < 8; part++) {
+            QuantileSketch partSketch = new QuantileSketch();
+            for (int i = part; i < count; i += 8) {
+                partSketch.update(values[i]);
+            }
+            sketch.merge(partSketch);
+        }
+        assertEquals(count, sketch.getCount());
+        assertRankErrorWithinBound(sketch, count);
+    }
+
+    @Test
+    public void percentilesAreExactBeforeCompaction() {
+        QuantileSketch sketch = new QuantileSketch();
+        float[] values = shuffledRanks(101, new Random(17));
+        for (float value : values) {
+            sketch.update(value);
+            sketch.update(Float.NaN);
+        }
+        assertEquals(101, sketch.getCount());
+        assertEquals(101, sketch.getRetainedCount());
+        assertEquals(24.5, sketch.getPercentile(25.), 0.);
+        assertEquals(50., sketch.getPercentile(50.), 0.);
+        assertEquals(75.5, sketch.getPercentile(75.), 0.);
+    }
+
+    @Test
+    public void sketchRestoredFromLevelsContinuesLikeTheOriginal() {
+        Random random = new Random(19);
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < 100000; i++) {
+            sketch.update((float)random.nextGaussian());
+        }
+        float[][] levels = new float[sketch.getLevelCount()][];
+        for (int h = 0; h < levels.length; h++) {
+            levels[h] = sketch.getLevel(h);
+        }
+        QuantileSketch restoredSketch = QuantileSketch.fromLevels(sketch.getK(), levels, sketch.getCount(),
+                sketch.getMin(), sketch.getMax(), sketch.getRandomState());
+        for (int i = 0; i < 100000; i++) {
+            float value = (float)random.nextGaussian();
+            sketch.update(value);
+            restoredSketch.update(value);
+        }
+        assertEquals(sketch.getRetainedCount(), restoredSketch.getRetainedCount());
+        for (int i = 0; i <= 100; i++) {
+            assertEquals(sketch.getQuantile(i / 100.), restoredSketch.getQuantile(i / 100.), 0.f);
+        }
+    }
+}